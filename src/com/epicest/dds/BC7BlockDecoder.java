@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import java.util.Arrays;
+
+/**
+ * Decodes single BC7 blocks, and holds the mode and partition tables of the
+ * format that {@link BC7BlockEncoder} shares.
+ *
+ * @author Jair
+ */
+final class BC7BlockDecoder {
+
+    /**
+     * Number of subsets of every mode
+     */
+    static final int[] SUBSETS = {3, 2, 3, 2, 1, 1, 1, 2};
+    /**
+     * Bits of the partition number of every mode
+     */
+    static final int[] PARTITION_BITS = {4, 6, 6, 6, 0, 0, 0, 6};
+    /**
+     * Bits of the channel rotation of every mode
+     */
+    static final int[] ROTATION_BITS = {0, 0, 0, 0, 2, 2, 0, 0};
+    /**
+     * Bits of the index selection of every mode
+     */
+    static final int[] INDEX_SELECTION_BITS = {0, 0, 0, 0, 1, 0, 0, 0};
+    /**
+     * Bits per color channel of an endpoint, without p bits
+     */
+    static final int[] COLOR_BITS = {4, 6, 5, 7, 5, 7, 7, 5};
+    /**
+     * Bits of the alpha channel of an endpoint without p bits, 0 for opaque
+     * modes
+     */
+    static final int[] ALPHA_BITS = {0, 0, 0, 0, 6, 8, 7, 5};
+    /**
+     * Whether every endpoint has its own p bit
+     */
+    static final boolean[] ENDPOINT_P_BITS = {true, false, false, true, false, false, true, true};
+    /**
+     * Whether both endpoints of a subset share one p bit
+     */
+    static final boolean[] SHARED_P_BITS = {false, true, false, false, false, false, false, false};
+    /**
+     * Bits per index of the primary index set
+     */
+    static final int[] INDEX_BITS = {3, 3, 2, 2, 2, 2, 4, 2};
+    /**
+     * Bits per index of the secondary index set, 0 if there is none
+     */
+    static final int[] SECONDARY_INDEX_BITS = {0, 0, 0, 0, 3, 2, 0, 0};
+
+    /**
+     * Interpolation weights out of 64 for 2, 3 and 4 bit indices
+     */
+    static final int[][] WEIGHTS = {
+        null, null,
+        {0, 21, 43, 64},
+        {0, 9, 18, 27, 37, 46, 55, 64},
+        {0, 4, 9, 13, 17, 21, 26, 30, 34, 38, 43, 47, 51, 55, 60, 64}
+    };
+
+    /**
+     * Two subset partitions, bit i set when pixel i is in the second subset
+     */
+    private static final int[] PARTITIONS_2 = {
+        0xCCCC, 0x8888, 0xEEEE, 0xECC8, 0xC880, 0xFEEC, 0xFEC8, 0xEC80,
+        0xC800, 0xFFEC, 0xFE80, 0xE800, 0xFFE8, 0xFF00, 0xFFF0, 0xF000,
+        0xF710, 0x008E, 0x7100, 0x08CE, 0x008C, 0x7310, 0x3100, 0x8CCE,
+        0x088C, 0x3110, 0x6666, 0x366C, 0x17E8, 0x0FF0, 0x718E, 0x399C,
+        0xAAAA, 0xF0F0, 0x5A5A, 0x33CC, 0x3C3C, 0x55AA, 0x9696, 0xA55A,
+        0x73CE, 0x13C8, 0x324C, 0x3BDC, 0x6996, 0xC33C, 0x9966, 0x0660,
+        0x0272, 0x04E4, 0x4E40, 0x2720, 0xC936, 0x936C, 0x39C6, 0x639C,
+        0x9336, 0x9CC6, 0x817E, 0xE718, 0xCCF0, 0x0FCC, 0x7744, 0xEE22
+    };
+    /**
+     * Three subset partitions, two bits per pixel holding its subset
+     */
+    private static final int[] PARTITIONS_3 = {
+        0xAA685050, 0x6A5A5040, 0x5A5A4200, 0x5450A0A8, 0xA5A50000, 0xA0A05050, 0x5555A0A0, 0x5A5A5050,
+        0xAA550000, 0xAA555500, 0xAAAA5500, 0x90909090, 0x94949494, 0xA4A4A4A4, 0xA9A59450, 0x2A0A4250,
+        0xA5945040, 0x0A425054, 0xA5A5A500, 0x55A0A0A0, 0xA8A85454, 0x6A6A4040, 0xA4A45000, 0x1A1A0500,
+        0x0050A4A4, 0xAAA59090, 0x14696914, 0x69691400, 0xA08585A0, 0xAA821414, 0x50A4A450, 0x6A5A0200,
+        0xA9A58000, 0x5090A0A8, 0xA8A09050, 0x24242424, 0x00AA5500, 0x24924924, 0x24499224, 0x50A50A50,
+        0x500AA550, 0xAAAA4444, 0x66660000, 0xA5A0A5A0, 0x50A050A0, 0x69286928, 0x44AAAA44, 0x66666600,
+        0xAA444444, 0x54A854A8, 0x95809580, 0x96969600, 0xA85454A8, 0x80959580, 0xAA141414, 0x96960000,
+        0xAAAA1414, 0xA05050A0, 0xA0A5A5A0, 0x96000000, 0x40804080, 0xA9A8A9A8, 0xAAAAAA44, 0x2A4A5254
+    };
+    /**
+     * Pixel whose index drops its top bit in the second subset of two subset
+     * partitions
+     */
+    private static final int[] ANCHORS_2 = {
+        15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15,
+        15, 2, 8, 2, 2, 8, 8, 15, 2, 8, 2, 2, 8, 8, 2, 2,
+        15, 15, 6, 8, 2, 8, 15, 15, 2, 8, 2, 2, 2, 15, 15, 6,
+        6, 2, 6, 8, 15, 15, 2, 2, 15, 15, 15, 15, 15, 2, 2, 15
+    };
+    /**
+     * Anchor pixel of the second subset of three subset partitions
+     */
+    private static final int[] ANCHORS_3_SECOND = {
+        3, 3, 15, 15, 8, 3, 15, 15, 8, 8, 6, 6, 6, 5, 3, 3,
+        3, 3, 8, 15, 3, 3, 6, 10, 5, 8, 8, 6, 8, 5, 15, 15,
+        8, 15, 3, 5, 6, 10, 8, 15, 15, 3, 15, 5, 15, 15, 15, 15,
+        3, 15, 5, 5, 5, 8, 5, 10, 5, 10, 8, 13, 15, 12, 3, 3
+    };
+    /**
+     * Anchor pixel of the third subset of three subset partitions
+     */
+    private static final int[] ANCHORS_3_THIRD = {
+        15, 8, 8, 3, 15, 15, 3, 8, 15, 15, 15, 15, 15, 15, 15, 8,
+        15, 8, 15, 3, 15, 8, 15, 8, 3, 15, 6, 10, 15, 15, 10, 8,
+        15, 3, 15, 10, 10, 8, 9, 10, 6, 15, 8, 15, 3, 6, 6, 8,
+        15, 3, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 3, 15, 15, 8
+    };
+
+    private BC7BlockDecoder() {
+    }
+
+    /**
+     * @return subset of a pixel
+     */
+    static int getSubset(int subsets, int partition, int pixel) {
+        switch (subsets) {
+            case 2:
+                return (PARTITIONS_2[partition] >>> pixel) & 1;
+            case 3:
+                return (PARTITIONS_3[partition] >>> (2 * pixel)) & 3;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return anchor pixel of a subset, whose index is stored without its top
+     * bit
+     */
+    static int getAnchor(int subsets, int partition, int subset) {
+        if (subset == 0) {
+            return 0;
+        } else if (subsets == 2) {
+            return ANCHORS_2[partition];
+        }
+        return subset == 1 ? ANCHORS_3_SECOND[partition] : ANCHORS_3_THIRD[partition];
+    }
+
+    /**
+     * Expands an endpoint channel to 8 bits by repeating its top bits.
+     */
+    static int expand(int value, int bits) {
+        value <<= 8 - bits;
+        return value | (value >>> bits);
+    }
+
+    /**
+     * Interpolates between two 8 bit endpoint values.
+     */
+    static int interpolate(int e0, int e1, int weight) {
+        return ((64 - weight) * e0 + weight * e1 + 32) >> 6;
+    }
+
+    /**
+     * Decodes a block.
+     *
+     * @param low first 8 bytes of the block, little endian
+     * @param high last 8 bytes of the block, little endian
+     * @param pixels receives 16 ARGB pixels in row order
+     */
+    static void decodeBlock(long low, long high, int[] pixels) {
+        BitReader in = new BitReader(low, high);
+        int mode = 0;
+        while (mode < 8 && in.read(1) == 0) {
+            mode++;
+        }
+        if (mode == 8) {
+            //reserved mode, decoders output transparent black
+            Arrays.fill(pixels, 0);
+            return;
+        }
+        int subsets = SUBSETS[mode];
+        int partition = in.read(PARTITION_BITS[mode]);
+        int rotation = in.read(ROTATION_BITS[mode]);
+        int indexSelection = in.read(INDEX_SELECTION_BITS[mode]);
+        int colorBits = COLOR_BITS[mode], alphaBits = ALPHA_BITS[mode];
+
+        //endpoints[channel][subset * 2 + endpoint] in R, G, B, A order
+        int endpointCount = subsets * 2;
+        int[][] endpoints = new int[4][endpointCount];
+        for (int channel = 0; channel < 3; channel++) {
+            for (int i = 0; i < endpointCount; i++) {
+                endpoints[channel][i] = in.read(colorBits);
+            }
+        }
+        for (int i = 0; i < endpointCount && alphaBits > 0; i++) {
+            endpoints[3][i] = in.read(alphaBits);
+        }
+        int[] pBits = new int[endpointCount];
+        if (ENDPOINT_P_BITS[mode]) {
+            for (int i = 0; i < endpointCount; i++) {
+                pBits[i] = in.read(1);
+            }
+        } else if (SHARED_P_BITS[mode]) {
+            for (int subset = 0; subset < subsets; subset++) {
+                pBits[subset * 2] = pBits[subset * 2 + 1] = in.read(1);
+            }
+        }
+        boolean hasPBits = ENDPOINT_P_BITS[mode] || SHARED_P_BITS[mode];
+        for (int i = 0; i < endpointCount; i++) {
+            for (int channel = 0; channel < 3; channel++) {
+                endpoints[channel][i] = hasPBits
+                        ? expand(endpoints[channel][i] << 1 | pBits[i], colorBits + 1)
+                        : expand(endpoints[channel][i], colorBits);
+            }
+            if (alphaBits == 0) {
+                endpoints[3][i] = 255;
+            } else {
+                endpoints[3][i] = hasPBits
+                        ? expand(endpoints[3][i] << 1 | pBits[i], alphaBits + 1)
+                        : expand(endpoints[3][i], alphaBits);
+            }
+        }
+
+        int indexBits = INDEX_BITS[mode], secondaryBits = SECONDARY_INDEX_BITS[mode];
+        int[] indices = new int[16];
+        for (int i = 0; i < 16; i++) {
+            int subset = getSubset(subsets, partition, i);
+            indices[i] = in.read(i == getAnchor(subsets, partition, subset) ? indexBits - 1 : indexBits);
+        }
+        int[] secondaryIndices = indices;
+        if (secondaryBits > 0) {
+            secondaryIndices = new int[16];
+            for (int i = 0; i < 16; i++) {
+                secondaryIndices[i] = in.read(i == 0 ? secondaryBits - 1 : secondaryBits);
+            }
+        }
+
+        //the index selection bit swaps which set the colors and the alpha use
+        int[] colorIndices = indexSelection == 0 ? indices : secondaryIndices;
+        int[] alphaIndices = indexSelection == 0 ? secondaryIndices : indices;
+        int[] colorWeights = WEIGHTS[indexSelection == 0 ? indexBits : secondaryBits];
+        int[] alphaWeights = WEIGHTS[indexSelection == 0 && secondaryBits > 0 ? secondaryBits : indexBits];
+        for (int i = 0; i < 16; i++) {
+            int e = getSubset(subsets, partition, i) * 2;
+            int colorWeight = colorWeights[colorIndices[i]], alphaWeight = alphaWeights[alphaIndices[i]];
+            int r = interpolate(endpoints[0][e], endpoints[0][e + 1], colorWeight);
+            int g = interpolate(endpoints[1][e], endpoints[1][e + 1], colorWeight);
+            int b = interpolate(endpoints[2][e], endpoints[2][e + 1], colorWeight);
+            int a = interpolate(endpoints[3][e], endpoints[3][e + 1], alphaWeight);
+            switch (rotation) {
+                case 1: {
+                    int swap = a;
+                    a = r;
+                    r = swap;
+                    break;
+                }
+                case 2: {
+                    int swap = a;
+                    a = g;
+                    g = swap;
+                    break;
+                }
+                case 3: {
+                    int swap = a;
+                    a = b;
+                    b = swap;
+                    break;
+                }
+                default:
+                    break;
+            }
+            pixels[i] = a << 24 | r << 16 | g << 8 | b;
+        }
+    }
+
+    /**
+     * Reads fields from the least significant bit of a block on.
+     */
+    private static final class BitReader {
+
+        private final long low;
+        private final long high;
+        private int position;
+
+        BitReader(long low, long high) {
+            this.low = low;
+            this.high = high;
+        }
+
+        int read(int bits) {
+            if (bits == 0) {
+                return 0;
+            }
+            long value;
+            if (position >= 64) {
+                value = high >>> (position - 64);
+            } else if (position + bits <= 64) {
+                value = low >>> position;
+            } else {
+                value = low >>> position | high << (64 - position);
+            }
+            position += bits;
+            return (int) (value & ((1L << bits) - 1));
+        }
+    }
+}
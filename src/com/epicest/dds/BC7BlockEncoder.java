@@ -0,0 +1,801 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import static com.epicest.dds.BC7BlockDecoder.ALPHA_BITS;
+import static com.epicest.dds.BC7BlockDecoder.COLOR_BITS;
+import static com.epicest.dds.BC7BlockDecoder.ENDPOINT_P_BITS;
+import static com.epicest.dds.BC7BlockDecoder.INDEX_BITS;
+import static com.epicest.dds.BC7BlockDecoder.INDEX_SELECTION_BITS;
+import static com.epicest.dds.BC7BlockDecoder.PARTITION_BITS;
+import static com.epicest.dds.BC7BlockDecoder.ROTATION_BITS;
+import static com.epicest.dds.BC7BlockDecoder.SECONDARY_INDEX_BITS;
+import static com.epicest.dds.BC7BlockDecoder.SHARED_P_BITS;
+import static com.epicest.dds.BC7BlockDecoder.SUBSETS;
+import static com.epicest.dds.BC7BlockDecoder.WEIGHTS;
+import java.util.Arrays;
+
+/**
+ * Encodes single 4x4 blocks of ARGB pixels as BC7.
+ * <br><br>
+ * BC7 has eight modes, and the partitioned ones 16 or 64 ways to split a
+ * block into subsets, so trying everything is far too slow to be
+ * interactive. The {@link CompressionQuality} decides how much is searched:
+ * <ul>
+ * <li>range fit only tries mode 6, one subset with 4 bit indices, with
+ * endpoints at the extremes of the principal axis</li>
+ * <li>cluster fit also tries mode 5 and the two subset modes, 1 and 3 for
+ * opaque blocks and 7 for the others, on the 4 partitions whose subsets lie
+ * closest to a line, refining the endpoints by least squares once</li>
+ * <li>iterative cluster fit tries every mode, rotation and index selection
+ * and the best 16 partitions of every partitioned mode, refining twice and
+ * trying every combination of p bits</li>
+ * </ul>
+ * Modes that can no longer beat the best encoding so far are abandoned after
+ * the subset that exceeds it. Like {@link DXTBlockEncoder}, every method only
+ * depends on its arguments.
+ *
+ * @author Jair
+ */
+final class BC7BlockEncoder {
+
+    /**
+     * Partitions tried per partitioned mode by cluster fit
+     */
+    private static final int PARTITIONS_NORMAL = 4;
+    /**
+     * Partitions tried per partitioned mode by iterative cluster fit
+     */
+    private static final int PARTITIONS_RELEASE = 16;
+
+    /**
+     * Squared error of a whole block below which cluster fit doesn't look
+     * for partitions, about 1 per channel and pixel
+     */
+    private static final int GOOD_ENOUGH_ERROR = 64;
+
+    /**
+     * Channel sums followed by the products of every pair of channels, by
+     * channel * 4 + channel
+     */
+    private static final int MOMENTS = 20;
+
+    private static final int P_BITS_NONE = 0;
+    private static final int P_BITS_ENDPOINT = 1;
+    private static final int P_BITS_SHARED = 2;
+
+    /**
+     * Pixels of every subset, by number of subsets, partition and subset
+     */
+    private static final int[][][][] MEMBERS = createMembers();
+    /**
+     * Index whose weight is nearest to every weight from 0 to 64, by index
+     * bits
+     */
+    private static final int[][] NEAREST_INDICES = createNearestIndices();
+
+    private BC7BlockEncoder() {
+    }
+
+    /**
+     * Encodes a block.
+     *
+     * @param block 16 ARGB pixels in row order
+     * @param out array receiving the 16 byte block
+     * @param offset position of the block in <code>out</code>
+     * @param quality how much of the modes and partitions to search
+     */
+    static void encodeBlock(int[] block, byte[] out, int offset, CompressionQuality quality) {
+        //channels in R, G, B, A order
+        int[][] pixels = new int[16][4];
+        boolean opaque = true;
+        for (int i = 0; i < 16; i++) {
+            int pixel = block[i];
+            pixels[i][0] = (pixel >> 16) & 0xFF;
+            pixels[i][1] = (pixel >> 8) & 0xFF;
+            pixels[i][2] = pixel & 0xFF;
+            pixels[i][3] = pixel >>> 24;
+            opaque &= pixel >>> 24 == 0xFF;
+        }
+
+        int channels = opaque ? 3 : 4;
+        Encoding best = encodeMode(pixels, 6, 0, 0, 0, quality, Long.MAX_VALUE);
+        if (quality == CompressionQuality.CLUSTER_FIT && best.error > 0) {
+            best = better(best, encodeMode(pixels, 5, 0, 0, 0, quality, best.error));
+            if (best.error <= GOOD_ENOUGH_ERROR) {
+                best.write(out, offset);
+                return;
+            }
+            int[] partitions = rankPartitions(pixels, channels, 2, 64, PARTITIONS_NORMAL);
+            if (opaque) {
+                best = tryPartitions(pixels, 1, partitions, quality, best);
+                best = tryPartitions(pixels, 3, partitions, quality, best);
+            } else {
+                best = tryPartitions(pixels, 7, partitions, quality, best);
+            }
+        } else if (quality == CompressionQuality.ITERATIVE_CLUSTER_FIT && best.error > 0) {
+            for (int rotation = 0; rotation < 4; rotation++) {
+                best = better(best, encodeMode(pixels, 5, 0, rotation, 0, quality, best.error));
+                best = better(best, encodeMode(pixels, 4, 0, rotation, 0, quality, best.error));
+                best = better(best, encodeMode(pixels, 4, 0, rotation, 1, quality, best.error));
+            }
+            int[] partitions = rankPartitions(pixels, channels, 2, 64, PARTITIONS_RELEASE);
+            best = tryPartitions(pixels, 7, partitions, quality, best);
+            //the opaque modes can't beat the others on transparent blocks
+            if (opaque) {
+                best = tryPartitions(pixels, 1, partitions, quality, best);
+                best = tryPartitions(pixels, 3, partitions, quality, best);
+                //mode 0 only has the first 16 three subset partitions
+                best = tryPartitions(pixels, 2, rankPartitions(pixels, channels, 3, 64, PARTITIONS_RELEASE), quality,
+                        best);
+                best = tryPartitions(pixels, 0, rankPartitions(pixels, channels, 3, 16, PARTITIONS_RELEASE), quality,
+                        best);
+            }
+        }
+        best.write(out, offset);
+    }
+
+    /**
+     * @return the encoding with the smaller error, <code>a</code> if
+     * <code>b</code> was abandoned
+     */
+    private static Encoding better(Encoding a, Encoding b) {
+        return b != null && b.error < a.error ? b : a;
+    }
+
+    private static Encoding tryPartitions(int[][] pixels, int mode, int[] partitions, CompressionQuality quality,
+            Encoding best) {
+        for (int partition : partitions) {
+            if (best.error == 0) {
+                break;
+            }
+            best = better(best, encodeMode(pixels, mode, partition, 0, 0, quality, best.error));
+        }
+        return best;
+    }
+
+    /**
+     * Orders partitions by how far the pixels of their subsets lie from the
+     * principal axis of the subset, which is roughly the error of a fit.
+     *
+     * @param channels 3 to leave out alpha, or 4
+     * @param subsets number of subsets
+     * @param partitions number of partitions to rank, from the first one
+     * @param count number of partitions to return
+     * @return the best partitions, best first
+     */
+    private static int[] rankPartitions(int[][] pixels, int channels, int subsets, int partitions, int count) {
+        //the moments of every pixel only need adding up per subset, the last subset is what the others leave
+        int[][] moments = new int[16][MOMENTS];
+        int[] total = new int[MOMENTS];
+        for (int i = 0; i < 16; i++) {
+            addMoments(pixels[i], 0, channels, moments[i]);
+            for (int k = 0; k < MOMENTS; k++) {
+                total[k] += moments[i][k];
+            }
+        }
+        double[] estimates = new double[partitions];
+        int[] order = new int[partitions];
+        int[] sums = new int[MOMENTS];
+        int[] rest = new int[MOMENTS];
+        double[] mean = new double[4];
+        double[][] covariance = new double[4][4];
+        double[] axis = new double[4];
+        for (int partition = 0; partition < partitions; partition++) {
+            int[][] members = MEMBERS[subsets][partition];
+            System.arraycopy(total, 0, rest, 0, MOMENTS);
+            double estimate = 0;
+            for (int subset = 0; subset < subsets; subset++) {
+                int[] subsetSums = rest;
+                if (subset < subsets - 1) {
+                    Arrays.fill(sums, 0);
+                    for (int i : members[subset]) {
+                        for (int k = 0; k < MOMENTS; k++) {
+                            sums[k] += moments[i][k];
+                        }
+                    }
+                    for (int k = 0; k < MOMENTS; k++) {
+                        rest[k] -= sums[k];
+                    }
+                    subsetSums = sums;
+                }
+                int n = members[subset].length;
+                getCovariance(subsetSums, n, channels, mean, covariance);
+                double variance = 0;
+                for (int c = 0; c < channels; c++) {
+                    variance += covariance[c][c];
+                }
+                estimate += Math.max(0, variance - powerIterate(covariance, axis, channels, 2)) * n;
+            }
+            estimates[partition] = estimate;
+            order[partition] = partition;
+        }
+        //partial selection sort, only the first few are needed
+        count = Math.min(count, partitions);
+        for (int i = 0; i < count; i++) {
+            int min = i;
+            for (int j = i + 1; j < partitions; j++) {
+                if (estimates[order[j]] < estimates[order[min]]) {
+                    min = j;
+                }
+            }
+            int swap = order[i];
+            order[i] = order[min];
+            order[min] = swap;
+        }
+        return Arrays.copyOf(order, count);
+    }
+
+    /**
+     * Encodes a block with one mode, partition, rotation and index selection.
+     *
+     * @param limit error at which to abandon the mode
+     * @return the encoding, or null if it was abandoned
+     */
+    private static Encoding encodeMode(int[][] pixels, int mode, int partition, int rotation, int indexSelection,
+            CompressionQuality quality, long limit) {
+        Encoding encoding = new Encoding(mode, partition, rotation, indexSelection);
+        int[][] rotated = pixels;
+        if (rotation != 0) {
+            //the decoder swaps alpha and the rotated channel back
+            rotated = new int[16][];
+            for (int i = 0; i < 16; i++) {
+                rotated[i] = pixels[i].clone();
+                rotated[i][3] = pixels[i][rotation - 1];
+                rotated[i][rotation - 1] = pixels[i][3];
+            }
+        }
+
+        int subsets = SUBSETS[mode];
+        int colorBits = COLOR_BITS[mode], alphaBits = ALPHA_BITS[mode];
+        int pBits = ENDPOINT_P_BITS[mode] ? P_BITS_ENDPOINT : SHARED_P_BITS[mode] ? P_BITS_SHARED : P_BITS_NONE;
+        int indexBits = INDEX_BITS[mode], secondaryBits = SECONDARY_INDEX_BITS[mode];
+        for (int subset = 0; subset < subsets; subset++) {
+            int[] members = MEMBERS[subsets][partition][subset];
+            int anchor = BC7BlockDecoder.getAnchor(subsets, partition, subset);
+            if (alphaBits == 0) {
+                //opaque modes decode alpha as 255
+                encoding.error += fitSubset(rotated, members, 0, 3, colorBits, pBits, indexBits, anchor,
+                        quality, encoding, subset, encoding.colorIndices);
+                for (int i : members) {
+                    int d = 255 - rotated[i][3];
+                    encoding.error += d * d;
+                }
+            } else if (secondaryBits > 0) {
+                //separate colors and alpha, the index selection swaps the index sets
+                encoding.error += fitSubset(rotated, members, 0, 3, colorBits, P_BITS_NONE,
+                        indexSelection == 0 ? indexBits : secondaryBits, anchor, quality, encoding, subset,
+                        encoding.colorIndices);
+                encoding.error += fitSubset(rotated, members, 3, 1, alphaBits, P_BITS_NONE,
+                        indexSelection == 0 ? secondaryBits : indexBits, anchor, quality, encoding, subset,
+                        encoding.alphaIndices);
+            } else {
+                encoding.error += fitSubset(rotated, members, 0, 4, colorBits, pBits, indexBits, anchor,
+                        quality, encoding, subset, encoding.colorIndices);
+            }
+            if (encoding.error >= limit) {
+                return null;
+            }
+        }
+        return encoding;
+    }
+
+    /**
+     * Fits the endpoints of one subset over a range of channels and stores
+     * them, their p bits and the indices of the subset's pixels in the
+     * encoding.
+     *
+     * @param first first channel
+     * @param channels number of channels
+     * @param bits bits per channel of an endpoint, without p bits
+     * @param anchor pixel whose index must not have its top bit set
+     * @return squared error of the channels
+     */
+    private static long fitSubset(int[][] pixels, int[] members, int first, int channels, int bits, int pBits,
+            int indexBits, int anchor, CompressionQuality quality, Encoding encoding, int subset, int[] indices) {
+        double[] mean = new double[4];
+        double[][] covariance = new double[4][4];
+        double[] axis = new double[4];
+        getCovariance(pixels, members, first, channels, mean, covariance);
+        powerIterate(covariance, axis, channels, 4);
+
+        //endpoints at the extremes of the pixels along the axis
+        double minT = 0, maxT = 0;
+        for (int i : members) {
+            double t = 0;
+            for (int c = 0; c < channels; c++) {
+                t += (pixels[i][first + c] - mean[c]) * axis[c];
+            }
+            minT = Math.min(minT, t);
+            maxT = Math.max(maxT, t);
+        }
+        double[] start = new double[4], end = new double[4];
+        for (int c = 0; c < channels; c++) {
+            start[c] = mean[c] + minT * axis[c];
+            end[c] = mean[c] + maxT * axis[c];
+        }
+
+        Fit best = new Fit();
+        Fit candidate = new Fit();
+        best.error = Long.MAX_VALUE;
+        double[] bestStart = start, bestEnd = end;
+        int refinements = quality == CompressionQuality.RANGE_FIT ? 0
+                : quality == CompressionQuality.CLUSTER_FIT ? 1 : 2;
+        for (int refinement = 0; refinement <= refinements; refinement++) {
+            quantize(start, end, channels, bits, pBits, -1, candidate);
+            fitIndices(pixels, members, first, channels, indexBits, candidate);
+            if (candidate.error >= best.error) {
+                break;
+            }
+            best.copy(candidate);
+            bestStart = start;
+            bestEnd = end;
+            if (best.error == 0 || refinement == refinements) {
+                break;
+            }
+            //least squares endpoints for the chosen indices
+            double[][] refined = solveEndpoints(pixels, members, first, channels, best.indices, indexBits);
+            if (refined == null) {
+                break;
+            }
+            start = refined[0];
+            end = refined[1];
+        }
+        if (quality == CompressionQuality.ITERATIVE_CLUSTER_FIT && pBits != P_BITS_NONE && best.error > 0) {
+            //the nearest p bits of each endpoint are not always the best pair
+            for (int combination = 0; combination < 4; combination++) {
+                if (pBits == P_BITS_SHARED && combination != 0 && combination != 3) {
+                    continue;
+                }
+                quantize(bestStart, bestEnd, channels, bits, pBits, combination, candidate);
+                fitIndices(pixels, members, first, channels, indexBits, candidate);
+                if (candidate.error < best.error) {
+                    best.copy(candidate);
+                }
+            }
+        }
+
+        //the anchor's index is stored without its top bit, swapping the endpoints flips every index
+        int maxIndex = (1 << indexBits) - 1;
+        if (best.indices[anchor] > maxIndex >> 1) {
+            for (int c = 0; c < channels; c++) {
+                int swap = best.start[c];
+                best.start[c] = best.end[c];
+                best.end[c] = swap;
+            }
+            int swap = best.startPBit;
+            best.startPBit = best.endPBit;
+            best.endPBit = swap;
+            for (int i : members) {
+                best.indices[i] = maxIndex - best.indices[i];
+            }
+        }
+        for (int c = 0; c < channels; c++) {
+            encoding.endpoints[first + c][subset * 2] = best.start[c];
+            encoding.endpoints[first + c][subset * 2 + 1] = best.end[c];
+        }
+        if (pBits != P_BITS_NONE) {
+            encoding.pBits[subset * 2] = best.startPBit;
+            encoding.pBits[subset * 2 + 1] = best.endPBit;
+        }
+        for (int i : members) {
+            indices[i] = best.indices[i];
+        }
+        return best.error;
+    }
+
+    /**
+     * Quantizes both endpoints, choosing the p bits that fit them best unless
+     * a combination is given.
+     *
+     * @param combination p bit of the start endpoint in bit 0 and of the end
+     * endpoint in bit 1, or -1 to choose them
+     */
+    private static void quantize(double[] start, double[] end, int channels, int bits, int pBits, int combination,
+            Fit fit) {
+        if (pBits == P_BITS_NONE) {
+            fit.startPBit = fit.endPBit = 0;
+            quantizeEndpoint(start, channels, bits, -1, fit.start, fit.startValues);
+            quantizeEndpoint(end, channels, bits, -1, fit.end, fit.endValues);
+            return;
+        }
+        if (combination >= 0) {
+            fit.startPBit = combination & 1;
+            fit.endPBit = combination >> 1;
+        } else {
+            double start0 = quantizeEndpoint(start, channels, bits, 0, fit.start, fit.startValues);
+            double start1 = quantizeEndpoint(start, channels, bits, 1, fit.start, fit.startValues);
+            double end0 = quantizeEndpoint(end, channels, bits, 0, fit.end, fit.endValues);
+            double end1 = quantizeEndpoint(end, channels, bits, 1, fit.end, fit.endValues);
+            if (pBits == P_BITS_SHARED) {
+                fit.startPBit = fit.endPBit = start1 + end1 < start0 + end0 ? 1 : 0;
+            } else {
+                fit.startPBit = start1 < start0 ? 1 : 0;
+                fit.endPBit = end1 < end0 ? 1 : 0;
+            }
+        }
+        quantizeEndpoint(start, channels, bits, fit.startPBit, fit.start, fit.startValues);
+        quantizeEndpoint(end, channels, bits, fit.endPBit, fit.end, fit.endValues);
+    }
+
+    /**
+     * Finds the nearest representable endpoint.
+     *
+     * @param pBit p bit appended to every channel, or -1 if there is none
+     * @param quantized receives the stored channel values
+     * @param values receives the 8 bit values they decode to
+     * @return squared error of the endpoint
+     */
+    private static double quantizeEndpoint(double[] endpoint, int channels, int bits, int pBit, int[] quantized,
+            int[] values) {
+        double error = 0;
+        int max = (1 << bits) - 1;
+        for (int c = 0; c < channels; c++) {
+            double v = Math.max(0, Math.min(255, endpoint[c]));
+            int q = pBit < 0 ? (int) Math.round(v * max / 255)
+                    : (int) Math.round((v * (2 * max + 1) / 255 - pBit) / 2);
+            int bestQ = 0, bestValue = 0;
+            double bestError = Double.MAX_VALUE;
+            //expanding by repeating the top bits is not linear, so check the neighbours
+            for (int candidate = Math.max(0, q - 1); candidate <= Math.min(max, q + 1); candidate++) {
+                int value = pBit < 0 ? BC7BlockDecoder.expand(candidate, bits)
+                        : BC7BlockDecoder.expand(candidate << 1 | pBit, bits + 1);
+                double e = (value - v) * (value - v);
+                if (e < bestError) {
+                    bestError = e;
+                    bestQ = candidate;
+                    bestValue = value;
+                }
+            }
+            quantized[c] = bestQ;
+            values[c] = bestValue;
+            error += bestError;
+        }
+        return error;
+    }
+
+    /**
+     * Picks the nearest palette entry for every pixel of a subset and sets the
+     * error of the fit. Pixels are projected onto the line between the
+     * endpoints, and only the entries around the projection are compared.
+     */
+    private static void fitIndices(int[][] pixels, int[] members, int first, int channels, int indexBits, Fit fit) {
+        int[] weights = WEIGHTS[indexBits];
+        int[] nearest = NEAREST_INDICES[indexBits];
+        int[] palette = new int[weights.length * 4];
+        int[] direction = new int[4];
+        int length = 0;
+        for (int c = 0; c < channels; c++) {
+            for (int i = 0; i < weights.length; i++) {
+                palette[i * 4 + c] = BC7BlockDecoder.interpolate(fit.startValues[c], fit.endValues[c], weights[i]);
+            }
+            direction[c] = fit.endValues[c] - fit.startValues[c];
+            length += direction[c] * direction[c];
+        }
+        long error = 0;
+        for (int m : members) {
+            int[] pixel = pixels[m];
+            int index = 0;
+            if (length > 0) {
+                int dot = 0;
+                for (int c = 0; c < channels; c++) {
+                    dot += (pixel[first + c] - fit.startValues[c]) * direction[c];
+                }
+                index = nearest[Math.max(0, Math.min(64, (dot * 64 + length / 2) / length))];
+            }
+            int best = index, bestError = Integer.MAX_VALUE;
+            for (int i = Math.max(0, index - 1); i <= Math.min(weights.length - 1, index + 1); i++) {
+                int e = 0;
+                for (int c = 0; c < channels; c++) {
+                    int d = pixel[first + c] - palette[i * 4 + c];
+                    e += d * d;
+                }
+                if (e < bestError) {
+                    bestError = e;
+                    best = i;
+                }
+            }
+            fit.indices[m] = best;
+            error += bestError;
+        }
+        fit.error = error;
+    }
+
+    /**
+     * Least squares endpoints for fixed indices.
+     *
+     * @return start and end endpoint, or null if all pixels use one weight
+     */
+    private static double[][] solveEndpoints(int[][] pixels, int[] members, int first, int channels, int[] indices,
+            int indexBits) {
+        int[] weights = WEIGHTS[indexBits];
+        double aa = 0, ab = 0, bb = 0;
+        double[] ax = new double[channels], bx = new double[channels];
+        for (int m : members) {
+            double b = weights[indices[m]] / 64.0, a = 1 - b;
+            aa += a * a;
+            ab += a * b;
+            bb += b * b;
+            for (int c = 0; c < channels; c++) {
+                int x = pixels[m][first + c];
+                ax[c] += a * x;
+                bx[c] += b * x;
+            }
+        }
+        double determinant = aa * bb - ab * ab;
+        if (Math.abs(determinant) < 1e-9) {
+            return null;
+        }
+        double[][] endpoints = new double[2][4];
+        for (int c = 0; c < channels; c++) {
+            endpoints[0][c] = (bb * ax[c] - ab * bx[c]) / determinant;
+            endpoints[1][c] = (aa * bx[c] - ab * ax[c]) / determinant;
+        }
+        return endpoints;
+    }
+
+    /**
+     * Mean and covariance of a range of channels over the pixels of a
+     * subset.
+     */
+    private static void getCovariance(int[][] pixels, int[] members, int first, int channels, double[] mean,
+            double[][] covariance) {
+        int[] sums = new int[MOMENTS];
+        for (int i : members) {
+            addMoments(pixels[i], first, channels, sums);
+        }
+        getCovariance(sums, members.length, channels, mean, covariance);
+    }
+
+    /**
+     * Mean and covariance from summed moments.
+     */
+    private static void getCovariance(int[] sums, int n, int channels, double[] mean, double[][] covariance) {
+        for (int c = 0; c < channels; c++) {
+            mean[c] = (double) sums[c] / n;
+        }
+        for (int c = 0; c < channels; c++) {
+            for (int d = c; d < channels; d++) {
+                covariance[c][d] = covariance[d][c] = (double) sums[4 + c * 4 + d] / n - mean[c] * mean[d];
+            }
+        }
+    }
+
+    /**
+     * Adds the channels of a pixel and their pairwise products to summed
+     * moments, integer sums being exact and much faster than summing
+     * differences from the mean.
+     */
+    private static void addMoments(int[] pixel, int first, int channels, int[] sums) {
+        for (int c = 0; c < channels; c++) {
+            int value = pixel[first + c];
+            sums[c] += value;
+            for (int d = c; d < channels; d++) {
+                sums[4 + c * 4 + d] += value * pixel[first + d];
+            }
+        }
+    }
+
+    /**
+     * Finds the principal axis of a covariance matrix, starting from the
+     * column of the channel that varies most.
+     *
+     * @param axis receives the unit axis, all zero if nothing varies
+     * @return variance along the axis
+     */
+    private static double powerIterate(double[][] covariance, double[] axis, int channels, int iterations) {
+        int widest = 0;
+        for (int c = 1; c < channels; c++) {
+            if (covariance[c][c] > covariance[widest][widest]) {
+                widest = c;
+            }
+        }
+        double[] next = new double[4];
+        double length = 0;
+        for (int c = 0; c < channels; c++) {
+            axis[c] = covariance[c][widest];
+            length += axis[c] * axis[c];
+        }
+        if (length < 1e-9) {
+            Arrays.fill(axis, 0);
+            return 0;
+        }
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            length = 0;
+            for (int c = 0; c < channels; c++) {
+                next[c] = 0;
+                for (int d = 0; d < channels; d++) {
+                    next[c] += covariance[c][d] * axis[d];
+                }
+                length += next[c] * next[c];
+            }
+            length = Math.sqrt(length);
+            for (int c = 0; c < channels; c++) {
+                axis[c] = next[c] / length;
+            }
+        }
+        return length;
+    }
+
+    private static int[][][][] createMembers() {
+        int[][][][] members = new int[4][][][];
+        for (int subsets = 1; subsets <= 3; subsets++) {
+            int partitions = subsets == 1 ? 1 : 64;
+            members[subsets] = new int[partitions][subsets][];
+            for (int partition = 0; partition < partitions; partition++) {
+                for (int subset = 0; subset < subsets; subset++) {
+                    int[] pixels = new int[16];
+                    int n = 0;
+                    for (int i = 0; i < 16; i++) {
+                        if (BC7BlockDecoder.getSubset(subsets, partition, i) == subset) {
+                            pixels[n++] = i;
+                        }
+                    }
+                    members[subsets][partition][subset] = Arrays.copyOf(pixels, n);
+                }
+            }
+        }
+        return members;
+    }
+
+    private static int[][] createNearestIndices() {
+        int[][] nearest = new int[WEIGHTS.length][];
+        for (int bits = 2; bits < WEIGHTS.length; bits++) {
+            nearest[bits] = new int[65];
+            for (int weight = 0; weight <= 64; weight++) {
+                int best = 0;
+                for (int i = 1; i < WEIGHTS[bits].length; i++) {
+                    if (Math.abs(WEIGHTS[bits][i] - weight) < Math.abs(WEIGHTS[bits][best] - weight)) {
+                        best = i;
+                    }
+                }
+                nearest[bits][weight] = best;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Endpoints and indices of one subset.
+     */
+    private static final class Fit {
+
+        final int[] start = new int[4];
+        final int[] end = new int[4];
+        final int[] startValues = new int[4];
+        final int[] endValues = new int[4];
+        int startPBit;
+        int endPBit;
+        final int[] indices = new int[16];
+        long error;
+
+        void copy(Fit fit) {
+            System.arraycopy(fit.start, 0, start, 0, 4);
+            System.arraycopy(fit.end, 0, end, 0, 4);
+            System.arraycopy(fit.startValues, 0, startValues, 0, 4);
+            System.arraycopy(fit.endValues, 0, endValues, 0, 4);
+            startPBit = fit.startPBit;
+            endPBit = fit.endPBit;
+            System.arraycopy(fit.indices, 0, indices, 0, 16);
+            error = fit.error;
+        }
+    }
+
+    /**
+     * A complete block in one mode.
+     */
+    private static final class Encoding {
+
+        final int mode;
+        final int partition;
+        final int rotation;
+        final int indexSelection;
+        /**
+         * Stored endpoint values by channel, then subset * 2 + endpoint
+         */
+        final int[][] endpoints = new int[4][6];
+        final int[] pBits = new int[6];
+        final int[] colorIndices = new int[16];
+        final int[] alphaIndices = new int[16];
+        long error;
+
+        Encoding(int mode, int partition, int rotation, int indexSelection) {
+            this.mode = mode;
+            this.partition = partition;
+            this.rotation = rotation;
+            this.indexSelection = indexSelection;
+        }
+
+        /**
+         * Writes the fields in the order of the format: mode, partition,
+         * rotation, index selection, endpoints a channel at a time, p bits,
+         * then the index sets.
+         */
+        void write(byte[] out, int offset) {
+            BitWriter bits = new BitWriter();
+            int subsets = SUBSETS[mode];
+            bits.write(1 << mode, mode + 1);
+            bits.write(partition, PARTITION_BITS[mode]);
+            bits.write(rotation, ROTATION_BITS[mode]);
+            bits.write(indexSelection, INDEX_SELECTION_BITS[mode]);
+            for (int c = 0; c < 3; c++) {
+                for (int i = 0; i < subsets * 2; i++) {
+                    bits.write(endpoints[c][i], COLOR_BITS[mode]);
+                }
+            }
+            for (int i = 0; i < subsets * 2 && ALPHA_BITS[mode] > 0; i++) {
+                bits.write(endpoints[3][i], ALPHA_BITS[mode]);
+            }
+            if (ENDPOINT_P_BITS[mode]) {
+                for (int i = 0; i < subsets * 2; i++) {
+                    bits.write(pBits[i], 1);
+                }
+            } else if (SHARED_P_BITS[mode]) {
+                for (int subset = 0; subset < subsets; subset++) {
+                    bits.write(pBits[subset * 2], 1);
+                }
+            }
+            int secondaryBits = SECONDARY_INDEX_BITS[mode];
+            int[] primary = secondaryBits > 0 && indexSelection == 1 ? alphaIndices : colorIndices;
+            for (int i = 0; i < 16; i++) {
+                int subset = BC7BlockDecoder.getSubset(subsets, partition, i);
+                boolean anchor = i == BC7BlockDecoder.getAnchor(subsets, partition, subset);
+                bits.write(primary[i], anchor ? INDEX_BITS[mode] - 1 : INDEX_BITS[mode]);
+            }
+            if (secondaryBits > 0) {
+                int[] secondary = indexSelection == 1 ? colorIndices : alphaIndices;
+                for (int i = 0; i < 16; i++) {
+                    bits.write(secondary[i], i == 0 ? secondaryBits - 1 : secondaryBits);
+                }
+            }
+            bits.writeTo(out, offset);
+        }
+    }
+
+    /**
+     * Writes fields from the least significant bit of a block on.
+     */
+    private static final class BitWriter {
+
+        private long low;
+        private long high;
+        private int position;
+
+        void write(int value, int bits) {
+            if (bits == 0) {
+                return;
+            }
+            long field = value & ((1L << bits) - 1);
+            if (position >= 64) {
+                high |= field << (position - 64);
+            } else {
+                low |= field << position;
+                if (position + bits > 64) {
+                    high |= field >>> (64 - position);
+                }
+            }
+            position += bits;
+        }
+
+        void writeTo(byte[] out, int offset) {
+            for (int i = 0; i < 8; i++) {
+                out[offset + i] = (byte) (low >>> (8 * i));
+                out[offset + 8 + i] = (byte) (high >>> (8 * i));
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the compressed bytes of recently seen 4x4 blocks, so repeated
+ * blocks like flat fields, stripes and torn away areas are only encoded
+ * once.
+ * <br><br>
+ * An open addressing table of flat arrays, probed linearly. It is cleared
+ * once it is three quarters full, which bounds its size. Not thread safe,
+ * every run of block rows has its own.
+ *
+ * @author Jair
+ */
+final class BlockMemo {
+
+    /**
+     * Number of slots, a power of two
+     */
+    private static final int CAPACITY = 512;
+    private static final int MAX_ENTRIES = CAPACITY * 3 / 4;
+
+    private final int blockSize;
+    private final int[] keys = new int[CAPACITY * 16];
+    private final byte[] values;
+    private final boolean[] used = new boolean[CAPACITY];
+    private int entries;
+    private int hits;
+    private int misses;
+
+    /**
+     * @param blockSize size of a compressed block in bytes
+     */
+    BlockMemo(int blockSize) {
+        this.blockSize = blockSize;
+        values = new byte[CAPACITY * blockSize];
+    }
+
+    /**
+     * Copies the compressed bytes of a block that was seen before.
+     *
+     * @param block 16 ARGB pixels
+     * @param out array the compressed block is copied to
+     * @param offset offset of the block in the array
+     * @return whether the block was found
+     */
+    boolean get(int[] block, byte[] out, int offset) {
+        for (int slot = getSlot(block); used[slot]; slot = (slot + 1) & (CAPACITY - 1)) {
+            if (matches(block, slot)) {
+                System.arraycopy(values, slot * blockSize, out, offset, blockSize);
+                hits++;
+                return true;
+            }
+        }
+        misses++;
+        return false;
+    }
+
+    /**
+     * Remembers the compressed bytes of a block that was not found.
+     *
+     * @param block 16 ARGB pixels
+     * @param compressed array holding the compressed block
+     * @param offset offset of the block in the array
+     */
+    void put(int[] block, byte[] compressed, int offset) {
+        if (entries == MAX_ENTRIES) {
+            Arrays.fill(used, false);
+            entries = 0;
+        }
+        int slot = getSlot(block);
+        while (used[slot]) {
+            slot = (slot + 1) & (CAPACITY - 1);
+        }
+        used[slot] = true;
+        entries++;
+        System.arraycopy(block, 0, keys, slot * 16, 16);
+        System.arraycopy(compressed, offset, values, slot * blockSize, blockSize);
+    }
+
+    /**
+     * @return number of blocks found so far
+     */
+    int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of blocks that were not found so far
+     */
+    int getMisses() {
+        return misses;
+    }
+
+    private boolean matches(int[] block, int slot) {
+        int start = slot * 16;
+        for (int i = 0; i < 16; i++) {
+            if (keys[start + i] != block[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getSlot(int[] block) {
+        int hash = 0;
+        for (int pixel : block) {
+            hash = (hash + pixel) * 0x9E3779B1;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        return hash & (CAPACITY - 1);
+    }
+}
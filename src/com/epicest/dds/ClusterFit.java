@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import java.util.Arrays;
+
+/**
+ * Cluster fit for four color blocks, after squish.
+ * <br><br>
+ * Pixels are ordered along an axis, and every split of that order into the
+ * four palette entries gets least squares endpoints. The endpoints with the
+ * smallest error after snapping to 565 win. The iterative variant repeats the
+ * search along the axis between the winning endpoints.
+ *
+ * @author Jair
+ */
+final class ClusterFit {
+
+    /**
+     * Most searches done by the iterative variant
+     */
+    private static final int MAX_ITERATIONS = 8;
+    private static final float SCALE_5 = 31 / 255f;
+    private static final float SCALE_6 = 63 / 255f;
+
+    private ClusterFit() {
+    }
+
+    /**
+     * Finds the endpoints for a block.
+     *
+     * @param block 16 ARGB pixels
+     * @param axis axis to order the pixels along, modified by the iterative
+     * variant
+     * @param iterate whether to repeat the search along improved axes
+     * @return both 565 endpoints, the first in the high 16 bits
+     */
+    static int fit(int[] block, float[] axis, boolean iterate) {
+        int[] order = new int[16];
+        int[] previousOrder = new int[16];
+        int[] sumR = new int[17], sumG = new int[17], sumB = new int[17], sumWeight = new int[17];
+        float bestError = Float.MAX_VALUE;
+        int bestEndpoints = 0;
+        int iterations = iterate ? MAX_ITERATIONS : 1;
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            sortAlongAxis(block, axis, order);
+            if (iteration > 0 && Arrays.equals(order, previousOrder)) {
+                break;
+            }
+            System.arraycopy(order, 0, previousOrder, 0, 16);
+            //neighbouring pixels of the same color are merged into one weighted point
+            int points = 0;
+            for (int i = 0; i < 16; i++) {
+                int pixel = block[order[i]];
+                if (i == 0 || ((pixel ^ block[order[i - 1]]) & 0xFFFFFF) != 0) {
+                    points++;
+                    sumR[points] = sumR[points - 1];
+                    sumG[points] = sumG[points - 1];
+                    sumB[points] = sumB[points - 1];
+                    sumWeight[points] = sumWeight[points - 1];
+                }
+                sumR[points] += (pixel >> 16) & 0xFF;
+                sumG[points] += (pixel >> 8) & 0xFF;
+                sumB[points] += pixel & 0xFF;
+                sumWeight[points]++;
+            }
+
+            float error = Float.MAX_VALUE;
+            int endpoints = 0;
+            //i points on the first endpoint, j and k on the two interpolated entries, the rest on the second
+            for (int i = 0; i <= points; i++) {
+                for (int j = 0; i + j <= points; j++) {
+                    int e1 = i + j;
+                    int w0 = sumWeight[i], w1 = sumWeight[e1] - sumWeight[i];
+                    //sums of the first endpoint and first interpolated entry, times 3
+                    int firstR = 3 * sumR[i] + 2 * (sumR[e1] - sumR[i]), firstG = 3 * sumG[i] + 2 * (sumG[e1] - sumG[i]);
+                    int firstB = 3 * sumB[i] + 2 * (sumB[e1] - sumB[i]);
+                    for (int k = 0; e1 + k <= points; k++) {
+                        int e2 = e1 + k;
+                        int w2 = sumWeight[e2] - sumWeight[e1];
+                        int w3 = 16 - sumWeight[e2];
+                        //weights scaled by 9 and sums scaled by 3 to stay in integers
+                        int alpha2 = 9 * w0 + 4 * w1 + w2;
+                        int beta2 = 9 * w3 + w1 + 4 * w2;
+                        int alphaBeta = 2 * (w1 + w2);
+                        int determinant = alpha2 * beta2 - alphaBeta * alphaBeta;
+                        if (determinant == 0) {
+                            continue;
+                        }
+                        float factor = 3f / determinant;
+
+                        int alphaXR = firstR + (sumR[e2] - sumR[e1]);
+                        int alphaXG = firstG + (sumG[e2] - sumG[e1]);
+                        int alphaXB = firstB + (sumB[e2] - sumB[e1]);
+                        //all pixels weigh 3 in total, so the second endpoint gets what the first didn't
+                        int betaXR = 3 * sumR[points] - alphaXR;
+                        int betaXG = 3 * sumG[points] - alphaXG;
+                        int betaXB = 3 * sumB[points] - alphaXB;
+
+                        int ar = snap((alphaXR * beta2 - betaXR * alphaBeta) * factor, SCALE_5);
+                        int ag = snap((alphaXG * beta2 - betaXG * alphaBeta) * factor, SCALE_6);
+                        int ab = snap((alphaXB * beta2 - betaXB * alphaBeta) * factor, SCALE_5);
+                        int br = snap((betaXR * alpha2 - alphaXR * alphaBeta) * factor, SCALE_5);
+                        int bg = snap((betaXG * alpha2 - alphaXG * alphaBeta) * factor, SCALE_6);
+                        int bb = snap((betaXB * alpha2 - alphaXB * alphaBeta) * factor, SCALE_5);
+                        float ar8 = expand5(ar), ag8 = expand6(ag), ab8 = expand5(ab);
+                        float br8 = expand5(br), bg8 = expand6(bg), bb8 = expand5(bb);
+
+                        //squared error without the constant sum of x squared, scaled by 9
+                        float e = (ar8 * ar8 + ag8 * ag8 + ab8 * ab8) * alpha2
+                                + (br8 * br8 + bg8 * bg8 + bb8 * bb8) * beta2
+                                + 2 * (ar8 * br8 + ag8 * bg8 + ab8 * bb8) * alphaBeta
+                                - 6 * (ar8 * alphaXR + ag8 * alphaXG + ab8 * alphaXB)
+                                - 6 * (br8 * betaXR + bg8 * betaXG + bb8 * betaXB);
+                        if (e < error) {
+                            error = e;
+                            endpoints = (((ar << 11) | (ag << 5) | ab) << 16) | (br << 11) | (bg << 5) | bb;
+                        }
+                    }
+                }
+            }
+            if (error >= bestError) {
+                break;
+            }
+            bestError = error;
+            bestEndpoints = endpoints;
+
+            int start = DXTBlockEncoder.from565(endpoints >>> 16), end = DXTBlockEncoder.from565(endpoints & 0xFFFF);
+            axis[0] = ((end >> 16) & 0xFF) - ((start >> 16) & 0xFF);
+            axis[1] = ((end >> 8) & 0xFF) - ((start >> 8) & 0xFF);
+            axis[2] = (end & 0xFF) - (start & 0xFF);
+            if (axis[0] == 0 && axis[1] == 0 && axis[2] == 0) {
+                break;
+            }
+        }
+        return bestEndpoints;
+    }
+
+    /**
+     * Orders the pixel indices by their projection on the axis, keeping the
+     * pixel order for ties.
+     */
+    private static void sortAlongAxis(int[] block, float[] axis, int[] order) {
+        float[] dots = new float[16];
+        for (int i = 0; i < 16; i++) {
+            int pixel = block[i];
+            float dot = ((pixel >> 16) & 0xFF) * axis[0] + ((pixel >> 8) & 0xFF) * axis[1] + (pixel & 0xFF) * axis[2];
+            int j = i;
+            while (j > 0 && dots[j - 1] > dot) {
+                dots[j] = dots[j - 1];
+                order[j] = order[j - 1];
+                j--;
+            }
+            dots[j] = dot;
+            order[j] = i;
+        }
+    }
+
+    /**
+     * Clamps a channel to 0-255 and rounds it to the nearest step of the
+     * given scale.
+     */
+    private static int snap(float value, float scale) {
+        float clamped = Math.max(0, Math.min(255, value));
+        return (int) (clamped * scale + 0.5f);
+    }
+
+    private static int expand5(int value) {
+        return value << 3 | value >> 2;
+    }
+
+    private static int expand6(int value) {
+        return value << 2 | value >> 4;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+/**
+ * How hard the DXT encoder searches for block endpoints, trading speed for
+ * quality.
+ *
+ * @author Jair
+ */
+public enum CompressionQuality {
+    /**
+     * Endpoints at the extremes of the principal axis, meant for drafts
+     */
+    RANGE_FIT("Draft (range fit)"),
+    /**
+     * Least squares endpoints for every ordering along the principal axis,
+     * the method the DDSUtil exporter used
+     */
+    CLUSTER_FIT("Normal (cluster fit)"),
+    /**
+     * Cluster fit repeated along the axis between the best endpoints until
+     * the ordering stops changing, meant for releases
+     */
+    ITERATIVE_CLUSTER_FIT("Release (iterative cluster fit)");
+
+    /**
+     * Quality used when none is chosen
+     */
+    public static final CompressionQuality DEFAULT = CLUSTER_FIT;
+
+    private final String displayName;
+
+    CompressionQuality(String displayName) {
+        this.displayName = displayName;
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import java.awt.image.BufferedImage;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Open DDS file that reads single mip map levels on demand.
+ * <br><br>
+ * Levels are read with positional reads rather than mapped, so closing the
+ * file releases everything it holds. They are read into one direct buffer
+ * that is reused for every level, and decoded from it straight into the
+ * raster of the image, so their bytes are only copied once on the way. Use
+ * it in a try-with-resources block. Not thread safe.
+ *
+ * @author Jair
+ */
+public class DDSFile implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final DDSHeader header;
+    private ByteBuffer buffer;
+
+    private DDSFile(FileChannel channel, DDSHeader header) {
+        this.channel = channel;
+        this.header = header;
+    }
+
+    /**
+     * Opens a file and reads its header.
+     *
+     * @param file DDS file
+     * @return the open file
+     * @throws IOException if the file could not be read or is not a DDS file
+     */
+    public static DDSFile open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new DDSFile(channel, DDSHeader.read(channel));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return header of the file
+     */
+    public DDSHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Reads the data of one level.
+     *
+     * @param level mip map level
+     * @return little endian, read only buffer holding just the level, valid
+     * until the next level is read
+     * @throws IOException if the file is truncated or the size of its format
+     * is not known
+     */
+    public ByteBuffer readLevelData(int level) throws IOException {
+        if (!header.hasLevelOffsets()) {
+            throw new IOException("Unsupported DDS pixel format " + header.getFormatName());
+        }
+        long offset = header.getLevelOffset(level);
+        int size = (int) header.getLevelSize(level);
+        if (buffer == null || buffer.capacity() < size) {
+            //the full size level is usually read first, so this is mostly allocated once
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+        ((Buffer) buffer).clear().limit(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("DDS file is truncated");
+            }
+        }
+        ((Buffer) buffer).flip();
+        return buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads and decodes one level.
+     *
+     * @param level mip map level
+     * @return the image
+     * @throws IOException if the file is truncated or its format is not
+     * supported
+     */
+    public BufferedImage readLevel(int level) throws IOException {
+        return DDSReader.decode(header, readLevelData(level), header.getLevelWidth(level),
+                header.getLevelHeight(level));
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import jogl.DDSImage;
+
+/**
+ * Header of a DDS file, with the offset of every mip map level worked out
+ * once.
+ * <br><br>
+ * Only the header is read, so unlike {@link DDSImage#read(java.io.File)}
+ * nothing is mapped and no file handle is left open. For cube maps and
+ * texture arrays the offsets are those of the first face.
+ *
+ * @author Jair
+ */
+public class DDSHeader {
+
+    /**
+     * Size of the header of a file without a DX10 extension, including the
+     * magic number
+     */
+    public static final int SIZE = 128;
+    /**
+     * Size of the DX10 extension that follows the header when the four
+     * character code is DX10
+     */
+    public static final int DX10_SIZE = 20;
+    /**
+     * Four character code marking a DX10 extension
+     */
+    public static final int FOURCC_DX10 = fourCC("DX10");
+
+    private static final int MAGIC = fourCC("DDS ");
+    private static final int DDS_HEADER_SIZE = 124;
+
+    private final int width;
+    private final int height;
+    private final int pixelFormat;
+    private final int dxgiFormat;
+    private final boolean cubemap;
+    private final boolean volume;
+    /**
+     * Start of every level followed by the end of the last one, null when the
+     * size of the format is not known
+     */
+    private final long[] levelOffsets;
+    private final int mipMapCount;
+
+    private DDSHeader(int width, int height, int pixelFormat, int dxgiFormat, int mipMapCount, boolean cubemap,
+            boolean volume, long[] levelOffsets) {
+        this.width = width;
+        this.height = height;
+        this.pixelFormat = pixelFormat;
+        this.dxgiFormat = dxgiFormat;
+        this.mipMapCount = mipMapCount;
+        this.cubemap = cubemap;
+        this.volume = volume;
+        this.levelOffsets = levelOffsets;
+    }
+
+    /**
+     * Reads the header of a file.
+     *
+     * @param file DDS file
+     * @return the header
+     * @throws IOException if the file could not be read or is not a DDS file
+     */
+    public static DDSHeader read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+
+    /**
+     * Reads the header from the start of a channel, leaving the channel's
+     * position untouched.
+     *
+     * @param channel open DDS file
+     * @return the header
+     * @throws IOException if the channel could not be read or is not a DDS
+     * file
+     */
+    public static DDSHeader read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE + DX10_SIZE);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return read(buffer);
+    }
+
+    /**
+     * Parses a header.
+     *
+     * @param data header bytes, starting with the magic number at the
+     * buffer's position
+     * @return the header
+     * @throws IOException if the data is not a DDS header
+     */
+    public static DDSHeader read(ByteBuffer data) throws IOException {
+        ByteBuffer buffer = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < SIZE) {
+            throw new EOFException("DDS header is truncated");
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != DDS_HEADER_SIZE) {
+            throw new IOException("Not a DDS file");
+        }
+        int height = buffer.getInt(12);
+        int width = buffer.getInt(16);
+        int flags = buffer.getInt(8);
+        int mipMapCount = (flags & DDSImage.DDSD_MIPMAPCOUNT) != 0 ? Math.max(1, buffer.getInt(28)) : 1;
+        int pixelFormatFlags = buffer.getInt(80);
+        int fourCC = buffer.getInt(84);
+        int bitCount = buffer.getInt(88);
+        int caps2 = buffer.getInt(112);
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Invalid DDS size " + width + "x" + height);
+        }
+        if (mipMapCount > DDSWriter.getMipMapCount(width, height)) {
+            //the chain ends at 1x1, more levels can only come from a corrupt header
+            throw new IOException("Invalid DDS mip map count " + mipMapCount + " for " + width + "x" + height);
+        }
+
+        int pixelFormat;
+        int dxgiFormat = 0;
+        if ((pixelFormatFlags & DDSImage.DDPF_FOURCC) != 0) {
+            pixelFormat = fourCC;
+            if (fourCC == FOURCC_DX10) {
+                if (buffer.remaining() < SIZE + DX10_SIZE) {
+                    throw new EOFException("DDS DX10 header is truncated");
+                }
+                dxgiFormat = buffer.getInt(SIZE);
+            }
+        } else {
+            pixelFormat = getUncompressedFormat(pixelFormatFlags, bitCount, buffer.getInt(92), buffer.getInt(96),
+                    buffer.getInt(100), buffer.getInt(104));
+        }
+
+        boolean cubemap = (caps2 & DDSImage.DDSCAPS2_CUBEMAP) != 0;
+        boolean volume = (caps2 & DDSImage.DDSCAPS2_VOLUME) != 0;
+        long[] levelOffsets = null;
+        long blockSize = getBlockSize(pixelFormat, dxgiFormat, pixelFormatFlags, bitCount);
+        if (blockSize > 0 && !volume) {
+            //compressed formats store 4x4 blocks, the others single pixels
+            int blockWidth = isCompressed(pixelFormat, dxgiFormat) ? 4 : 1;
+            levelOffsets = new long[mipMapCount + 1];
+            levelOffsets[0] = fourCC == FOURCC_DX10 ? SIZE + DX10_SIZE : SIZE;
+            for (int i = 0; i < mipMapCount; i++) {
+                long blocksWide = (Math.max(1, width >> i) + blockWidth - 1) / blockWidth;
+                long blocksHigh = (Math.max(1, height >> i) + blockWidth - 1) / blockWidth;
+                levelOffsets[i + 1] = levelOffsets[i] + blocksWide * blocksHigh * blockSize;
+            }
+        }
+        return new DDSHeader(width, height, getEquivalentFormat(pixelFormat, dxgiFormat), dxgiFormat, mipMapCount,
+                cubemap, volume, levelOffsets);
+    }
+
+    /**
+     * @return width of the full size level
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the full size level
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return four character code of a compressed format, or one of the
+     * <code>D3DFMT_</code> constants of {@link DDSImage} for uncompressed ones.
+     * DX10 formats with the same layout as an older format report that
+     * format, for example ATI1 for BC4, the others report DX10.
+     * @see #getDXTFormat()
+     */
+    public int getPixelFormat() {
+        return pixelFormat;
+    }
+
+    /**
+     * @return DXGI format of the DX10 extension, or 0 if there is none
+     */
+    public int getDXGIFormat() {
+        return dxgiFormat;
+    }
+
+    /**
+     * @return block compressed format of the file, including BC7, which has
+     * no pixel format of its own, or null if it is uncompressed or not
+     * supported
+     */
+    public DXTFormat getDXTFormat() {
+        if (pixelFormat == FOURCC_DX10) {
+            //BC7 typeless, unorm and srgb
+            return dxgiFormat >= 97 && dxgiFormat <= 99 ? DXTFormat.BC7 : null;
+        }
+        return DDSReader.getDXTFormat(pixelFormat);
+    }
+
+    /**
+     * @return readable name of the format
+     */
+    public String getFormatName() {
+        DXTFormat format = getDXTFormat();
+        if (format != null) {
+            return format.name();
+        }
+        return pixelFormat == FOURCC_DX10 ? "DX10 (DXGI format " + dxgiFormat + ")"
+                : DDSReader.getFormatName(pixelFormat);
+    }
+
+    /**
+     * @return number of mip map levels, at least 1 and at most the levels of a
+     * chain down to 1x1
+     */
+    public int getMipMapCount() {
+        return mipMapCount;
+    }
+
+    public boolean isCubemap() {
+        return cubemap;
+    }
+
+    public boolean isVolume() {
+        return volume;
+    }
+
+    /**
+     * @return whether the size of the levels is known, which it is for
+     * every format that is not a volume texture or an unknown compressed
+     * format
+     */
+    public boolean hasLevelOffsets() {
+        return levelOffsets != null;
+    }
+
+    /**
+     * @param level mip map level
+     * @return width of the level
+     */
+    public int getLevelWidth(int level) {
+        checkLevel(level);
+        return Math.max(1, width >> level);
+    }
+
+    /**
+     * @param level mip map level
+     * @return height of the level
+     */
+    public int getLevelHeight(int level) {
+        checkLevel(level);
+        return Math.max(1, height >> level);
+    }
+
+    /**
+     * @param level mip map level
+     * @return file offset of the level's first byte
+     * @throws IllegalStateException if the level offsets are not known
+     */
+    public long getLevelOffset(int level) {
+        checkLevel(level);
+        checkLevelOffsets();
+        return levelOffsets[level];
+    }
+
+    /**
+     * @param level mip map level
+     * @return size of the level in bytes
+     * @throws IllegalStateException if the level offsets are not known
+     */
+    public long getLevelSize(int level) {
+        checkLevel(level);
+        checkLevelOffsets();
+        return levelOffsets[level + 1] - levelOffsets[level];
+    }
+
+    /**
+     * @return file offset just past the last level of the first face
+     * @throws IllegalStateException if the level offsets are not known
+     */
+    public long getDataEnd() {
+        checkLevelOffsets();
+        return levelOffsets[mipMapCount];
+    }
+
+    private void checkLevel(int level) {
+        if (level < 0 || level >= mipMapCount) {
+            throw new IndexOutOfBoundsException("No mip map level " + level);
+        }
+    }
+
+    private void checkLevelOffsets() {
+        if (levelOffsets == null) {
+            throw new IllegalStateException("Level size of " + getFormatName() + " is not known");
+        }
+    }
+
+    /**
+     * Same mapping of bit masks to formats as {@link DDSImage}.
+     */
+    private static int getUncompressedFormat(int flags, int bitCount, int redMask, int greenMask, int blueMask,
+            int alphaMask) {
+        if ((flags & DDSImage.DDPF_RGB) == 0 || redMask != 0x00FF0000 || greenMask != 0x0000FF00
+                || blueMask != 0x000000FF) {
+            return DDSImage.D3DFMT_UNKNOWN;
+        }
+        if (bitCount == 32) {
+            return (flags & DDSImage.DDPF_ALPHAPIXELS) != 0 && alphaMask == 0xFF000000
+                    ? DDSImage.D3DFMT_A8R8G8B8 : DDSImage.D3DFMT_X8R8G8B8;
+        }
+        return bitCount == 24 ? DDSImage.D3DFMT_R8G8B8 : DDSImage.D3DFMT_UNKNOWN;
+    }
+
+    /**
+     * Older format with the same data layout as an unsigned DX10 format or an
+     * alternative four character code.
+     */
+    private static int getEquivalentFormat(int pixelFormat, int dxgiFormat) {
+        if (pixelFormat == fourCC("BC4U")) {
+            return DXTFormat.BC4.getFourCC();
+        } else if (pixelFormat == fourCC("BC5U")) {
+            return DXTFormat.BC5.getFourCC();
+        } else if (pixelFormat != FOURCC_DX10) {
+            return pixelFormat;
+        }
+        switch (dxgiFormat) {
+            case 70: //BC1 typeless, unorm and srgb
+            case 71:
+            case 72:
+                return DXTFormat.DXT1.getFourCC();
+            case 76: //BC3 typeless, unorm and srgb
+            case 77:
+            case 78:
+                return DXTFormat.DXT5.getFourCC();
+            case 79: //BC4 typeless and unorm
+            case 80:
+                return DXTFormat.BC4.getFourCC();
+            case 82: //BC5 typeless and unorm
+            case 83:
+                return DXTFormat.BC5.getFourCC();
+            case 87: //B8G8R8A8 unorm, typeless and srgb
+            case 90:
+            case 91:
+                return DDSImage.D3DFMT_A8R8G8B8;
+            case 88: //B8G8R8X8 unorm, typeless and srgb
+            case 92:
+            case 93:
+                return DDSImage.D3DFMT_X8R8G8B8;
+            default:
+                return FOURCC_DX10;
+        }
+    }
+
+    /**
+     * Bytes per 4x4 block of compressed formats or per pixel of the others,
+     * 0 if not known.
+     */
+    private static long getBlockSize(int pixelFormat, int dxgiFormat, int flags, int bitCount) {
+        if (pixelFormat == FOURCC_DX10) {
+            if (dxgiFormat >= 70 && dxgiFormat <= 72 || dxgiFormat >= 79 && dxgiFormat <= 81) {
+                //BC1 and BC4
+                return 8;
+            } else if (dxgiFormat >= 73 && dxgiFormat <= 84 || dxgiFormat >= 94 && dxgiFormat <= 99) {
+                //BC2, BC3, BC5, BC6H and BC7
+                return 16;
+            } else if (dxgiFormat >= 27 && dxgiFormat <= 32 || dxgiFormat >= 87 && dxgiFormat <= 93) {
+                //8 bits per channel RGBA and BGRA
+                return 4;
+            }
+            return 0;
+        }
+        if ((flags & DDSImage.DDPF_FOURCC) != 0) {
+            if (pixelFormat == DDSImage.D3DFMT_DXT1 || pixelFormat == fourCC("ATI1")
+                    || pixelFormat == fourCC("BC4U") || pixelFormat == fourCC("BC4S")) {
+                return 8;
+            } else if (isCompressed(pixelFormat, 0)) {
+                return 16;
+            }
+            return 0;
+        }
+        return bitCount > 0 && bitCount % 8 == 0 ? bitCount / 8 : 0;
+    }
+
+    private static boolean isCompressed(int pixelFormat, int dxgiFormat) {
+        if (pixelFormat == FOURCC_DX10) {
+            return dxgiFormat >= 70 && dxgiFormat <= 84 || dxgiFormat >= 94 && dxgiFormat <= 99;
+        }
+        return pixelFormat == DDSImage.D3DFMT_DXT1 || pixelFormat == DDSImage.D3DFMT_DXT2
+                || pixelFormat == DDSImage.D3DFMT_DXT3 || pixelFormat == DDSImage.D3DFMT_DXT4
+                || pixelFormat == DDSImage.D3DFMT_DXT5 || pixelFormat == fourCC("ATI1")
+                || pixelFormat == fourCC("ATI2") || pixelFormat == fourCC("BC4U") || pixelFormat == fourCC("BC4S")
+                || pixelFormat == fourCC("BC5U") || pixelFormat == fourCC("BC5S");
+    }
+
+    static int fourCC(String code) {
+        return code.charAt(0) | code.charAt(1) << 8 | code.charAt(2) << 16 | code.charAt(3) << 24;
+    }
+}
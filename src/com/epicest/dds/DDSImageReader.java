@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * ImageIO reader for DDS files, with one image per mip map level.
+ * <br><br>
+ * Only the rows a read needs are read from the stream and decoded. Reads
+ * with subsampling are served from the smallest mip map level that still
+ * has a pixel for every one of the subsampled pixels, so a thumbnail of a
+ * large texture only decodes a small level.
+ *
+ * @author Jair
+ */
+public class DDSImageReader extends ImageReader {
+
+    private DDSHeader header;
+
+    /**
+     * @param originatingProvider provider creating the reader
+     */
+    public DDSImageReader(ImageReaderSpi originatingProvider) {
+        super(originatingProvider);
+    }
+
+    @Override
+    public void setInput(Object input, boolean seekForwardOnly, boolean ignoreMetadata) {
+        super.setInput(input, seekForwardOnly, ignoreMetadata);
+        header = null;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        header = null;
+    }
+
+    @Override
+    public int getNumImages(boolean allowSearch) throws IOException {
+        readHeader();
+        return header.getMipMapCount();
+    }
+
+    @Override
+    public int getWidth(int imageIndex) throws IOException {
+        checkIndex(imageIndex);
+        return header.getLevelWidth(imageIndex);
+    }
+
+    @Override
+    public int getHeight(int imageIndex) throws IOException {
+        checkIndex(imageIndex);
+        return header.getLevelHeight(imageIndex);
+    }
+
+    @Override
+    public Iterator<ImageTypeSpecifier> getImageTypes(int imageIndex) throws IOException {
+        checkIndex(imageIndex);
+        return Collections.singletonList(ImageTypeSpecifier.createFromBufferedImageType(
+                DDSReader.hasAlpha(header) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB))
+                .iterator();
+    }
+
+    @Override
+    public IIOMetadata getStreamMetadata() throws IOException {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata getImageMetadata(int imageIndex) throws IOException {
+        return null;
+    }
+
+    @Override
+    public BufferedImage read(int imageIndex, ImageReadParam param) throws IOException {
+        checkIndex(imageIndex);
+        int width = getWidth(imageIndex);
+        int height = getHeight(imageIndex);
+        BufferedImage destination = getDestination(param, getImageTypes(imageIndex), width, height);
+        Rectangle sourceRegion = new Rectangle();
+        Rectangle destinationRegion = new Rectangle();
+        computeRegions(param, width, height, destination, sourceRegion, destinationRegion);
+        int xSubsampling = param == null ? 1 : param.getSourceXSubsampling();
+        int ySubsampling = param == null ? 1 : param.getSourceYSubsampling();
+        processImageStarted(imageIndex);
+        if (destinationRegion.isEmpty()) {
+            processImageComplete();
+            return destination;
+        }
+
+        //every step of subsampling that halves the size can be taken by a smaller level instead
+        int shift = 0;
+        while (imageIndex + shift + 1 < getNumImages(false)
+                && 2 << shift <= Math.min(xSubsampling, ySubsampling)) {
+            shift++;
+        }
+        int level = imageIndex + shift;
+        int levelWidth = getWidth(level), levelHeight = getHeight(level);
+        int firstRow = Math.min(levelHeight - 1, sourceRegion.y >> shift);
+        int lastRow = Math.min(levelHeight - 1,
+                (sourceRegion.y + (destinationRegion.height - 1) * ySubsampling) >> shift);
+
+        //read and decode only the rows that are sampled from
+        DXTFormat format = header.getDXTFormat();
+        int rowHeight = format == null ? 1 : 4;
+        int startRow = firstRow / rowHeight;
+        int endRow = lastRow / rowHeight + 1;
+        int rowSize = DDSReader.getLevelSize(header, levelWidth, rowHeight);
+        byte[] data = new byte[(endRow - startRow) * rowSize];
+        ImageInputStream stream = (ImageInputStream) input;
+        stream.seek(header.getLevelOffset(level) + (long) startRow * rowSize);
+        stream.readFully(data);
+        int decodedHeight = Math.min(levelHeight - startRow * rowHeight, (endRow - startRow) * rowHeight);
+        if (format != null && shift == 0 && xSubsampling == 1 && ySubsampling == 1
+                && sourceRegion.equals(new Rectangle(width, height))
+                && destinationRegion.equals(new Rectangle(width, height))
+                && destination.getWidth() == width && (destination.getType() == BufferedImage.TYPE_INT_ARGB
+                || destination.getType() == BufferedImage.TYPE_INT_RGB)) {
+            //whole level into a matching image, decode straight into its raster, the RGB type ignores alpha
+            DXTDecoder.decode(ByteBuffer.wrap(data), format, width, height,
+                    (DataBufferInt) destination.getRaster().getDataBuffer());
+            processImageProgress(100f);
+            processImageComplete();
+            return destination;
+        }
+        BufferedImage decoded = DDSReader.decode(header, ByteBuffer.wrap(data), levelWidth, decodedHeight);
+
+        int[] columns = new int[destinationRegion.width];
+        for (int x = 0; x < columns.length; x++) {
+            columns[x] = Math.min(levelWidth - 1, (sourceRegion.x + x * xSubsampling) >> shift);
+        }
+        int[] sourceRow = new int[levelWidth];
+        int[] row = new int[destinationRegion.width];
+        for (int y = 0; y < destinationRegion.height; y++) {
+            if (abortRequested()) {
+                processReadAborted();
+                return destination;
+            }
+            int sourceY = Math.min(levelHeight - 1, (sourceRegion.y + y * ySubsampling) >> shift)
+                    - startRow * rowHeight;
+            decoded.getRGB(0, sourceY, levelWidth, 1, sourceRow, 0, levelWidth);
+            for (int x = 0; x < row.length; x++) {
+                row[x] = sourceRow[columns[x]];
+            }
+            destination.setRGB(destinationRegion.x, destinationRegion.y + y, row.length, 1, row, 0, row.length);
+            processImageProgress(100f * (y + 1) / destinationRegion.height);
+        }
+        processImageComplete();
+        return destination;
+    }
+
+    /**
+     * Reads the header, which works out where every level starts.
+     */
+    private void readHeader() throws IOException {
+        if (header != null) {
+            return;
+        }
+        if (!(input instanceof ImageInputStream)) {
+            throw new IllegalStateException("No input set");
+        }
+        ImageInputStream stream = (ImageInputStream) input;
+        byte[] headerData = new byte[DDSHeader.SIZE + DDSHeader.DX10_SIZE];
+        stream.seek(0);
+        //the DX10 extension is optional, so small files may end before it
+        int length = 0;
+        while (length < headerData.length) {
+            int read = stream.read(headerData, length, headerData.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        DDSHeader ddsHeader = DDSHeader.read(ByteBuffer.wrap(headerData, 0, length));
+        if (ddsHeader.isCubemap() || ddsHeader.isVolume()) {
+            throw new IOException("Cube maps and volume textures are not supported");
+        }
+        //fails early for formats that can't be decoded
+        DDSReader.getLevelSize(ddsHeader, 1, 1);
+        header = ddsHeader;
+    }
+
+    private void checkIndex(int imageIndex) throws IOException {
+        if (imageIndex < 0 || imageIndex >= getNumImages(false)) {
+            throw new IndexOutOfBoundsException("No mip map level " + imageIndex);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import java.io.IOException;
+import java.util.Locale;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Registers {@link DDSImageReader} with ImageIO, through
+ * <code>META-INF/services</code>.
+ *
+ * @author Jair
+ */
+public class DDSImageReaderSpi extends ImageReaderSpi {
+
+    private static final byte[] MAGIC = {'D', 'D', 'S', ' '};
+
+    public DDSImageReaderSpi() {
+        super("Jair", "1.0", new String[]{"dds", "DDS"}, new String[]{"dds"},
+                new String[]{"image/vnd-ms.dds", "image/x-dds"}, DDSImageReader.class.getName(),
+                new Class<?>[]{ImageInputStream.class}, null,
+                false, null, null, null, null,
+                false, null, null, null, null);
+    }
+
+    @Override
+    public boolean canDecodeInput(Object source) throws IOException {
+        if (!(source instanceof ImageInputStream)) {
+            return false;
+        }
+        ImageInputStream stream = (ImageInputStream) source;
+        byte[] magic = new byte[MAGIC.length];
+        stream.mark();
+        try {
+            int read = 0;
+            while (read < magic.length) {
+                int count = stream.read(magic, read, magic.length - read);
+                if (count < 0) {
+                    return false;
+                }
+                read += count;
+            }
+        } finally {
+            stream.reset();
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public ImageReader createReaderInstance(Object extension) {
+        return new DDSImageReader(this);
+    }
+
+    @Override
+    public String getDescription(Locale locale) {
+        return "DirectDraw Surface";
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headers of every DDS file in a folder and its subfolders.
+ * <br><br>
+ * Only the headers are read, on a fixed number of threads, so folders with
+ * tens of thousands of textures can be scanned without mapping any of them.
+ * Run with <code>java -cp 76FlagReplacer.jar com.epicest.dds.DDSIndex
+ * &lt;folder&gt; [threads]</code> for a summary of the formats in a folder.
+ *
+ * @author Jair
+ */
+public class DDSIndex {
+
+    private final SortedMap<Path, DDSHeader> headers;
+    private final SortedMap<Path, IOException> failures;
+
+    private DDSIndex(SortedMap<Path, DDSHeader> headers, SortedMap<Path, IOException> failures) {
+        this.headers = Collections.unmodifiableSortedMap(headers);
+        this.failures = Collections.unmodifiableSortedMap(failures);
+    }
+
+    /**
+     * Reads the header of every file ending in .dds in a folder and its
+     * subfolders.
+     *
+     * @param directory folder to scan
+     * @param threads number of files read at once
+     * @return the index
+     * @throws IOException if the folder could not be listed
+     * @throws InterruptedException if the calling thread was interrupted
+     * while waiting for the headers
+     */
+    public static DDSIndex scan(Path directory, int threads) throws IOException, InterruptedException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            files = paths.filter(path -> path.getFileName().toString().toLowerCase().endsWith(".dds")
+                    && Files.isRegularFile(path)).collect(Collectors.toList());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "DDS index worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<DDSHeader>> reads = new ArrayList<>(files.size());
+            for (Path file : files) {
+                reads.add(executor.submit(() -> DDSHeader.read(file)));
+            }
+            SortedMap<Path, DDSHeader> headers = new TreeMap<>();
+            SortedMap<Path, IOException> failures = new TreeMap<>();
+            for (int i = 0; i < files.size(); i++) {
+                try {
+                    headers.put(files.get(i), reads.get(i).get());
+                } catch (ExecutionException ee) {
+                    //one broken file must not end the scan of the others
+                    Throwable cause = ee.getCause();
+                    failures.put(files.get(i), cause instanceof IOException ? (IOException) cause
+                            : new IOException(files.get(i).toString(), cause));
+                }
+            }
+            return new DDSIndex(headers, failures);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return header of every file that could be read, by path
+     */
+    public SortedMap<Path, DDSHeader> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return error of every file that could not be read, by path
+     */
+    public SortedMap<Path, IOException> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Prints the number of textures per format, and the files that could not
+     * be read.
+     *
+     * @param args folder to scan, optionally followed by the number of threads
+     * @throws Exception if the folder could not be scanned
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: DDSIndex <folder> [threads]");
+            System.exit(2);
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long start = System.nanoTime();
+        DDSIndex index = scan(Paths.get(args[0]), threads);
+        long end = System.nanoTime();
+
+        SortedMap<String, Integer> formats = new TreeMap<>();
+        int withoutMipMaps = 0;
+        for (DDSHeader header : index.getHeaders().values()) {
+            formats.merge(header.getFormatName(), 1, Integer::sum);
+            if (header.getMipMapCount() == 1 && Math.max(header.getWidth(), header.getHeight()) > 1) {
+                withoutMipMaps++;
+            }
+        }
+        for (Map.Entry<String, Integer> format : formats.entrySet()) {
+            System.out.println(format.getKey() + ": " + format.getValue());
+        }
+        System.out.println(withoutMipMaps + " without mip maps");
+        for (Map.Entry<Path, IOException> failure : index.getFailures().entrySet()) {
+            System.out.println(failure.getKey() + ": " + failure.getValue().getMessage());
+        }
+        System.out.printf("%d headers read in %.1f s, %d failed%n", index.getHeaders().size(), (end - start) / 1e9,
+                index.getFailures().size());
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import jogl.DDSImage;
+
+/**
+ * Reads DDS files into images.
+ * <br><br>
+ * Replacement for <code>DDSUtil.loadBufferedImage</code>, which returns null
+ * for uncompressed files and needs the missing jsquish library for
+ * compressed ones. Only the full size level is read, through a
+ * {@link DDSFile}, and its pixels are bulk copied or decoded straight into the
+ * raster of the returned image.
+ *
+ * @author Jair
+ */
+public class DDSReader {
+
+    private DDSReader() {
+    }
+
+    /**
+     * Reads the full size level of a DDS file.
+     *
+     * @param file DDS file
+     * @return the image
+     * @throws IOException if the file could not be read or its format is not
+     * supported
+     */
+    public static BufferedImage read(File file) throws IOException {
+        try (DDSFile ddsFile = DDSFile.open(file.toPath())) {
+            return ddsFile.readLevel(0);
+        }
+    }
+
+    /**
+     * Decodes one level of a DDS file, in any format the header resolves,
+     * BC7 included.
+     */
+    static BufferedImage decode(DDSHeader header, ByteBuffer levelData, int width, int height) throws IOException {
+        return decode(header.getPixelFormat(), header.getDXTFormat(), levelData, width, height);
+    }
+
+    private static BufferedImage decode(int pixelFormat, DXTFormat format, ByteBuffer levelData, int width,
+            int height) throws IOException {
+        //slices don't keep the byte order of the file
+        ByteBuffer data = levelData.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        checkSize(data, getLevelSize(pixelFormat, format, width, height));
+        BufferedImage image;
+        if (format != null) {
+            image = new BufferedImage(width, height, format.hasAlpha()
+                    ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            DXTDecoder.decode(data, format, width, height, (DataBufferInt) image.getRaster().getDataBuffer());
+            return image;
+        }
+        switch (pixelFormat) {
+            case DDSImage.D3DFMT_A8R8G8B8:
+            case DDSImage.D3DFMT_X8R8G8B8:
+                //little endian BGRA is an ARGB int, the RGB type ignores the unused byte
+                image = new BufferedImage(width, height, pixelFormat == DDSImage.D3DFMT_A8R8G8B8
+                        ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+                data.asIntBuffer().get(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+                return image;
+            case DDSImage.D3DFMT_R8G8B8:
+                //stored as B, G, R bytes, the same as the BGR type
+                image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+                data.get(((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+                return image;
+            default:
+                throw new IOException("Unsupported DDS pixel format " + getFormatName(pixelFormat));
+        }
+    }
+
+    /**
+     * Size of one level in bytes, in any format the header resolves.
+     *
+     * @throws IOException if the format is not supported
+     */
+    static int getLevelSize(DDSHeader header, int width, int height) throws IOException {
+        return getLevelSize(header.getPixelFormat(), header.getDXTFormat(), width, height);
+    }
+
+    private static int getLevelSize(int pixelFormat, DXTFormat format, int width, int height) throws IOException {
+        if (format != null) {
+            return format.getSize(width, height);
+        }
+        switch (pixelFormat) {
+            case DDSImage.D3DFMT_A8R8G8B8:
+            case DDSImage.D3DFMT_X8R8G8B8:
+                return width * height * 4;
+            case DDSImage.D3DFMT_R8G8B8:
+                return width * height * 3;
+            default:
+                throw new IOException("Unsupported DDS pixel format " + getFormatName(pixelFormat));
+        }
+    }
+
+    /**
+     * Block compressed format of a DDS pixel format, or null if it is
+     * uncompressed or not supported.
+     */
+    static DXTFormat getDXTFormat(int pixelFormat) {
+        for (DXTFormat format : DXTFormat.values()) {
+            //BC7 has no code of its own, and 0 is the unknown format
+            if (format.getFourCC() != 0 && format.getFourCC() == pixelFormat) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether pixels of a file's format can be partially transparent.
+     */
+    static boolean hasAlpha(DDSHeader header) {
+        int pixelFormat = header.getPixelFormat();
+        DXTFormat format = header.getDXTFormat();
+        if (format != null) {
+            return format.hasAlpha();
+        }
+        return pixelFormat != DDSImage.D3DFMT_X8R8G8B8 && pixelFormat != DDSImage.D3DFMT_R8G8B8;
+    }
+
+    private static void checkSize(ByteBuffer data, int size) throws IOException {
+        if (data.remaining() < size) {
+            throw new IOException("DDS file is truncated");
+        }
+    }
+
+    /**
+     * Four character code of a compressed format, or the number of an
+     * uncompressed one.
+     */
+    static String getFormatName(int pixelFormat) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 4; i++) {
+            char c = (char) ((pixelFormat >> (8 * i)) & 0xFF);
+            if (c < ' ' || c > '~') {
+                return Integer.toString(pixelFormat);
+            }
+            name.append(c);
+        }
+        return name.toString();
+    }
+}
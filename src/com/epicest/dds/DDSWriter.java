@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import jogl.DDSImage;
+
+/**
+ * Writes DXT1, DXT5, BC4, BC5 and BC7 compressed DDS files with
+ * {@link DXTCompressor}. BC4, BC5 and BC7 files get a DX10 extension after
+ * the header.
+ * <br><br>
+ * Replacement for <code>DDSUtil.write</code>, whose jsquish based compressor
+ * is not shipped with the bundled DDSUtil jar. The layout of the file is
+ * known before anything is compressed, so the file is memory mapped and
+ * every mip map level is compressed straight into its part of it.
+ *
+ * @author Jair
+ */
+public class DDSWriter {
+
+    /**
+     * Size of the magic number and header in front of the data, without a
+     * DX10 extension
+     */
+    public static final int HEADER_SIZE = DDSHeader.SIZE;
+    private static final int MAGIC = 0x20534444;
+    private static final int DX10_TEXTURE2D = 3;
+    private static final int DDS_HEADER_SIZE = 124;
+    private static final int PIXEL_FORMAT_SIZE = 32;
+
+    private DDSWriter() {
+    }
+
+    /**
+     * Compresses an image and writes it as a DDS file.
+     *
+     * @param file destination file
+     * @param image image to compress
+     * @param generateMipMaps whether to write a full mip map chain
+     * @param format format to write, or null to pick one from the alpha of the
+     * image with {@link DXTFormat#select(int[])}
+     * @param quality how hard the encoder searches for block endpoints
+     * @param sync whether to wait until the file is on the disk
+     * @return format that was written
+     * @throws IOException if the file could not be written
+     */
+    public static DXTFormat write(File file, BufferedImage image, boolean generateMipMaps, DXTFormat format,
+            CompressionQuality quality, boolean sync) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = getPixels(image);
+        if (format == null) {
+            format = DXTFormat.select(pixels);
+        }
+        writeMipMaps(file, getMipMaps(pixels, width, height, generateMipMaps), null, width, height, format,
+                quality, sync);
+        return format;
+    }
+
+    /**
+     * Mip map chain of pixels, or only the pixels themselves.
+     */
+    static int[][] getMipMaps(int[] pixels, int width, int height, boolean generateMipMaps) {
+        //torn areas are transparent black, weighting by alpha keeps them from darkening the edges like
+        //the area averaging used before
+        return generateMipMaps ? MipMapGenerator.generate(pixels, width, height, true) : new int[][]{pixels};
+    }
+
+    /**
+     * Writes a DDS file holding a compressed mip map chain. Given the chain
+     * the file already holds, only the blocks that changed are compressed and
+     * the rest of the file is left as it is.
+     *
+     * @return number of blocks compressed, not counting blocks copied from
+     * another half of their level
+     */
+    static int writeMipMaps(File file, int[][] mipMaps, int[][] previous, int width, int height, DXTFormat format,
+            CompressionQuality quality, boolean sync) throws IOException {
+        long[] offsets = getLayout(format, width, height, mipMaps.length);
+        long fileSize = offsets[mipMaps.length];
+        //only truncated when it shrinks, windows refuses that while an earlier mapping of the file is still alive
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() > fileSize) {
+                channel.truncate(fileSize);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            writeHeader(mapped, format, width, height, mipMaps.length);
+            ByteBuffer[] levels = new ByteBuffer[mipMaps.length];
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = mapped.duplicate();
+                ((Buffer) levels[i]).limit((int) offsets[i + 1]).position((int) offsets[i]);
+            }
+            int compressed = DXTCompressor.recompressMipMaps(mipMaps, previous, width, height, format, quality,
+                    levels);
+            if (sync) {
+                mapped.force();
+            }
+            return compressed;
+        }
+    }
+
+    /**
+     * Number of 4x4 blocks in a mip map chain.
+     *
+     * @param format format of the file
+     * @param width full size image width
+     * @param height full size image height
+     * @param mipMapCount number of levels
+     * @return block count
+     */
+    public static int getBlockCount(DXTFormat format, int width, int height, int mipMapCount) {
+        long[] offsets = getLayout(format, width, height, mipMapCount);
+        return (int) ((offsets[mipMapCount] - offsets[0]) / format.getBlockSize());
+    }
+
+    /**
+     * Offsets of every mip map level of a DDS file, followed by the file
+     * size.
+     *
+     * @param format format of the file
+     * @param width full size image width
+     * @param height full size image height
+     * @param mipMapCount number of levels
+     * @return mipMapCount + 1 offsets from the start of the file
+     */
+    public static long[] getLayout(DXTFormat format, int width, int height, int mipMapCount) {
+        long[] offsets = new long[mipMapCount + 1];
+        offsets[0] = format.isWrittenWithDX10Header() ? HEADER_SIZE + DDSHeader.DX10_SIZE : HEADER_SIZE;
+        for (int i = 0; i < mipMapCount; i++) {
+            offsets[i + 1] = offsets[i] + format.getSize(Math.max(1, width >> i), Math.max(1, height >> i));
+        }
+        return offsets;
+    }
+
+    /**
+     * Writes the magic number, header and DX10 extension if the format needs
+     * one at the position of a little endian buffer.
+     */
+    private static void writeHeader(ByteBuffer buffer, DXTFormat format, int width, int height, int mipMapCount) {
+        int flags = DDSImage.DDSD_CAPS | DDSImage.DDSD_HEIGHT | DDSImage.DDSD_WIDTH
+                | DDSImage.DDSD_PIXELFORMAT | DDSImage.DDSD_LINEARSIZE;
+        int caps = DDSImage.DDSCAPS_TEXTURE;
+        if (mipMapCount > 1) {
+            flags |= DDSImage.DDSD_MIPMAPCOUNT;
+            caps |= DDSImage.DDSCAPS_COMPLEX | DDSImage.DDSCAPS_MIPMAP;
+        }
+        buffer.putInt(MAGIC);
+        buffer.putInt(DDS_HEADER_SIZE);
+        buffer.putInt(flags);
+        buffer.putInt(height);
+        buffer.putInt(width);
+        buffer.putInt(format.getSize(width, height));
+        buffer.putInt(0); //depth
+        buffer.putInt(mipMapCount > 1 ? mipMapCount : 0);
+        for (int i = 0; i < 11; i++) {
+            buffer.putInt(0); //reserved
+        }
+        buffer.putInt(PIXEL_FORMAT_SIZE);
+        buffer.putInt(DDSImage.DDPF_FOURCC);
+        buffer.putInt(format.isWrittenWithDX10Header() ? DDSHeader.FOURCC_DX10 : format.getFourCC());
+        for (int i = 0; i < 5; i++) {
+            buffer.putInt(0); //bit count and masks
+        }
+        buffer.putInt(caps);
+        for (int i = 0; i < 4; i++) {
+            buffer.putInt(0); //caps2, caps3, caps4 and reserved
+        }
+        if (format.isWrittenWithDX10Header()) {
+            buffer.putInt(format.getDXGIFormat());
+            buffer.putInt(DX10_TEXTURE2D);
+            buffer.putInt(0); //misc flags
+            buffer.putInt(1); //array size
+            buffer.putInt(0); //alpha mode
+        }
+    }
+
+    /**
+     * Number of mip maps down to 1x1, including the full size image.
+     *
+     * @param width image width
+     * @param height image height
+     * @return mip map count
+     */
+    public static int getMipMapCount(int width, int height) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+    }
+
+    /**
+     * ARGB pixels of an image in row order. Plain <code>TYPE_INT_ARGB</code>
+     * images, like the composited textures, hand out their own pixel array,
+     * which is only read. Anything else is copied.
+     */
+    static int[] getPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB
+                && image.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride() == width
+                && image.getRaster().getDataBuffer().getOffset() == 0
+                && image.getRaster().getSampleModelTranslateX() == 0
+                && image.getRaster().getSampleModelTranslateY() == 0) {
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            if (pixels.length == width * height) {
+                return pixels;
+            }
+        }
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Times the compression of full mip map chains, one level after another
+ * against all levels at once, and the decoding of the full size level on one
+ * thread against all cores. BC7 is timed separately for every quality, as it
+ * is far slower than DXT5 and its qualities differ by an order of magnitude.
+ * <br><br>
+ * Run with <code>java -cp 76FlagReplacer.jar com.epicest.dds.DXTBenchmark
+ * [quality]</code>.
+ *
+ * @author Jair
+ */
+public class DXTBenchmark {
+
+    private static final int[] SIZES = {1024, 4096};
+    private static final int BC7_SIZE = 512;
+    private static final int WARMUP_RUNS = 1;
+    private static final int RUNS = 2;
+
+    private DXTBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        CompressionQuality quality = args.length > 0 ? CompressionQuality.valueOf(args[0]) : CompressionQuality.DEFAULT;
+        System.out.println(quality + ", " + Runtime.getRuntime().availableProcessors() + " cores");
+        for (int size : SIZES) {
+            int[][] mipMaps = MipMapGenerator.generate(createImage(size), size, size, true);
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                compressSequentially(mipMaps, size, quality);
+                compressConcurrently(mipMaps, size, quality);
+            }
+            long sequential = 0, concurrent = 0;
+            for (int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                compressSequentially(mipMaps, size, quality);
+                long middle = System.nanoTime();
+                compressConcurrently(mipMaps, size, quality);
+                long end = System.nanoTime();
+                sequential += middle - start;
+                concurrent += end - middle;
+            }
+            System.out.printf("%dx%d, %d levels: one level at a time %.0f ms, all levels at once %.0f ms%n",
+                    size, size, mipMaps.length, sequential / 1e6 / RUNS, concurrent / 1e6 / RUNS);
+            timeDecoding(DXTCompressor.compress(mipMaps[0], size, size, DXTFormat.DXT5, quality), size);
+        }
+        timeBC7(createImage(BC7_SIZE), BC7_SIZE);
+    }
+
+    private static void timeDecoding(byte[] blocks, int size) {
+        int[] out = new int[size * size];
+        ForkJoinPool singleThread = new ForkJoinPool(1);
+        try {
+            Runnable decode = () -> DXTDecoder.decode(ByteBuffer.wrap(blocks), DXTFormat.DXT5, size, size, out);
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                singleThread.submit(decode).join();
+                decode.run();
+            }
+            long single = 0, parallel = 0;
+            for (int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                singleThread.submit(decode).join();
+                long middle = System.nanoTime();
+                decode.run();
+                long end = System.nanoTime();
+                single += middle - start;
+                parallel += end - middle;
+            }
+            System.out.printf("%dx%d decoding: one thread %.1f ms, all cores %.1f ms%n",
+                    size, size, single / 1e6 / RUNS, parallel / 1e6 / RUNS);
+        } finally {
+            singleThread.shutdown();
+        }
+    }
+
+    private static void timeBC7(int[] pixels, int size) {
+        ForkJoinPool singleThread = new ForkJoinPool(1);
+        try {
+            for (CompressionQuality quality : CompressionQuality.values()) {
+                Supplier<byte[]> compress = () -> DXTCompressor.compress(pixels, size, size, DXTFormat.BC7, quality);
+                byte[] blocks = null;
+                for (int i = 0; i < WARMUP_RUNS; i++) {
+                    singleThread.submit(compress::get).join();
+                    blocks = compress.get();
+                }
+                long single = 0, parallel = 0;
+                for (int i = 0; i < RUNS; i++) {
+                    long start = System.nanoTime();
+                    singleThread.submit(compress::get).join();
+                    long middle = System.nanoTime();
+                    compress.get();
+                    long end = System.nanoTime();
+                    single += middle - start;
+                    parallel += end - middle;
+                }
+                int[] decoded = new int[size * size];
+                DXTDecoder.decode(ByteBuffer.wrap(blocks), DXTFormat.BC7, size, size, decoded);
+                double pixelCount = (double) size * size * RUNS;
+                System.out.printf("%dx%d BC7, %s: one thread %.2f Mpx/s, all cores %.2f Mpx/s, PSNR %.1f dB%n",
+                        size, size, quality, pixelCount * 1e3 / single, pixelCount * 1e3 / parallel,
+                        getPSNR(pixels, decoded));
+            }
+        } finally {
+            singleThread.shutdown();
+        }
+    }
+
+    /**
+     * Peak signal to noise ratio over all four channels.
+     */
+    private static double getPSNR(int[] original, int[] decoded) {
+        double squaredError = 0;
+        for (int i = 0; i < original.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int difference = ((original[i] >>> shift) & 0xFF) - ((decoded[i] >>> shift) & 0xFF);
+                squaredError += difference * difference;
+            }
+        }
+        double meanSquaredError = squaredError / (original.length * 4.0);
+        return meanSquaredError == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / meanSquaredError);
+    }
+
+    private static void compressSequentially(int[][] mipMaps, int size, CompressionQuality quality) {
+        for (int i = 0; i < mipMaps.length; i++) {
+            int mipMapSize = Math.max(1, size >> i);
+            DXTCompressor.compress(mipMaps[i], mipMapSize, mipMapSize, DXTFormat.DXT5, quality);
+        }
+    }
+
+    private static void compressConcurrently(int[][] mipMaps, int size, CompressionQuality quality) {
+        ByteBuffer[] out = new ByteBuffer[mipMaps.length];
+        for (int i = 0; i < mipMaps.length; i++) {
+            int mipMapSize = Math.max(1, size >> i);
+            out[i] = ByteBuffer.allocate(DXTFormat.DXT5.getSize(mipMapSize, mipMapSize));
+        }
+        DXTCompressor.compressMipMaps(mipMaps, size, size, DXTFormat.DXT5, quality, out);
+    }
+
+    /**
+     * Flag like test image: horizontal stripes with a gradient and some
+     * noise.
+     */
+    private static int[] createImage(int size) {
+        Random random = new Random(76);
+        int[] pixels = new int[size * size];
+        for (int y = 0; y < size; y++) {
+            int stripe = (y * 13 / size) % 2 == 0 ? 0xB22234 : 0xFFFFFF;
+            for (int x = 0; x < size; x++) {
+                int shade = x * 48 / size + random.nextInt(4);
+                int r = Math.max(0, ((stripe >> 16) & 0xFF) - shade);
+                int g = Math.max(0, ((stripe >> 8) & 0xFF) - shade);
+                int b = Math.max(0, (stripe & 0xFF) - shade);
+                pixels[y * size + x] = 0xFF000000 | r << 16 | g << 8 | b;
+            }
+        }
+        return pixels;
+    }
+}
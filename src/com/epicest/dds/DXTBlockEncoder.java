@@ -0,0 +1,514 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+/**
+ * Encodes single 4x4 blocks of ARGB pixels.
+ * <br><br>
+ * Colors are fitted along the principal axis of the block with the range fit
+ * or {@link ClusterFit} of squish, depending on the
+ * {@link CompressionQuality}. Every method only depends on its arguments, so
+ * blocks can be encoded in any order and on any thread with identical results.
+ *
+ * @author Jair
+ */
+final class DXTBlockEncoder {
+
+    /**
+     * Size of a DXT1 block, and of the color or alpha half of a DXT5 block
+     */
+    static final int HALF_BLOCK_SIZE = 8;
+
+    /**
+     * Best 5 bit endpoint pair for every 8 bit value of a single color block,
+     * first endpoint in the high byte
+     */
+    private static final int[] SINGLE_COLOR_5 = createSingleColorTable(5);
+    /**
+     * Best 6 bit endpoint pair for every 8 bit value of a single color block,
+     * first endpoint in the high byte
+     */
+    private static final int[] SINGLE_COLOR_6 = createSingleColorTable(6);
+
+    /**
+     * Alpha below which DXT1 pixels become transparent
+     */
+    static final int DXT1_ALPHA_THRESHOLD = 128;
+
+    private DXTBlockEncoder() {
+    }
+
+    /**
+     * Encodes the colors of a block in four color mode.
+     *
+     * @param block 16 ARGB pixels in row order
+     * @param out array receiving the 8 byte color block
+     * @param offset position of the color block in <code>out</code>
+     * @param quality how hard to search for endpoints
+     */
+    static void encodeColorBlock(int[] block, byte[] out, int offset, CompressionQuality quality) {
+        if (encodeSimpleColorBlock(block, out, offset, quality)) {
+            return;
+        }
+
+        //mean and covariance of the block
+        int sumR = 0, sumG = 0, sumB = 0;
+        for (int pixel : block) {
+            sumR += (pixel >> 16) & 0xFF;
+            sumG += (pixel >> 8) & 0xFF;
+            sumB += pixel & 0xFF;
+        }
+        float meanR = sumR / 16f, meanG = sumG / 16f, meanB = sumB / 16f;
+        float rr = 0, rg = 0, rb = 0, gg = 0, gb = 0, bb = 0;
+        for (int pixel : block) {
+            float r = ((pixel >> 16) & 0xFF) - meanR;
+            float g = ((pixel >> 8) & 0xFF) - meanG;
+            float b = (pixel & 0xFF) - meanB;
+            rr += r * r;
+            rg += r * g;
+            rb += r * b;
+            gg += g * g;
+            gb += g * b;
+            bb += b * b;
+        }
+
+        //principal axis by power iteration
+        float axisR = 1, axisG = 1, axisB = 1;
+        for (int i = 0; i < 8; i++) {
+            float r = axisR * rr + axisG * rg + axisB * rb;
+            float g = axisR * rg + axisG * gg + axisB * gb;
+            float b = axisR * rb + axisG * gb + axisB * bb;
+            float max = Math.max(Math.abs(r), Math.max(Math.abs(g), Math.abs(b)));
+            if (max == 0) {
+                break;
+            }
+            axisR = r / max;
+            axisG = g / max;
+            axisB = b / max;
+        }
+
+        //pixels furthest apart along the axis become the endpoints
+        int minPixel = block[0], maxPixel = block[0];
+        float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+        for (int pixel : block) {
+            float dot = ((pixel >> 16) & 0xFF) * axisR + ((pixel >> 8) & 0xFF) * axisG + (pixel & 0xFF) * axisB;
+            if (dot < min) {
+                min = dot;
+                minPixel = pixel;
+            }
+            if (dot > max) {
+                max = dot;
+                maxPixel = pixel;
+            }
+        }
+        int error = writeColorBlock(block, to565(maxPixel), to565(minPixel), out, offset);
+        if (quality == CompressionQuality.RANGE_FIT || error == 0) {
+            return;
+        }
+
+        float[] axis = {axisR, axisG, axisB};
+        int endpoints = ClusterFit.fit(block, axis, quality == CompressionQuality.ITERATIVE_CLUSTER_FIT);
+        byte[] clusterBlock = new byte[HALF_BLOCK_SIZE];
+        //keep the range fit if snapping the cluster endpoints made them worse
+        if (writeColorBlock(block, endpoints >>> 16, endpoints & 0xFFFF, clusterBlock, 0) < error) {
+            System.arraycopy(clusterBlock, 0, out, offset, HALF_BLOCK_SIZE);
+        }
+    }
+
+    /**
+     * Encodes a block as a DXT1 block. Opaque blocks use the four color mode,
+     * blocks with transparent pixels the three color mode.
+     *
+     * @param block 16 ARGB pixels in row order
+     * @param out array receiving the 8 byte block
+     * @param offset position of the block in <code>out</code>
+     * @param quality how hard to search for endpoints of opaque blocks
+     */
+    static void encodeDXT1Block(int[] block, byte[] out, int offset, CompressionQuality quality) {
+        for (int pixel : block) {
+            if (pixel >>> 24 < DXT1_ALPHA_THRESHOLD) {
+                encodeTransparentColorBlock(block, out, offset);
+                return;
+            }
+        }
+        encodeColorBlock(block, out, offset, quality);
+    }
+
+    /**
+     * Encodes a block in three color mode, with the two visible pixels
+     * furthest apart as endpoints and transparent pixels on the fourth
+     * entry.
+     */
+    private static void encodeTransparentColorBlock(int[] block, byte[] out, int offset) {
+        int first = -1, second = -1, distance = -1;
+        for (int i = 0; i < 16; i++) {
+            if (block[i] >>> 24 < DXT1_ALPHA_THRESHOLD) {
+                continue;
+            }
+            for (int j = i; j < 16; j++) {
+                if (block[j] >>> 24 >= DXT1_ALPHA_THRESHOLD && colorDistance(block[i], block[j]) > distance) {
+                    distance = colorDistance(block[i], block[j]);
+                    first = i;
+                    second = j;
+                }
+            }
+        }
+        if (first < 0) {
+            writeColorBlock(0, 0, 0xFFFFFFFF, out, offset);
+            return;
+        }
+        //the first endpoint may not be larger, or the block would be in four color mode
+        int color0 = Math.min(to565(block[first]), to565(block[second]));
+        int color1 = Math.max(to565(block[first]), to565(block[second]));
+        int[] palette = new int[4];
+        getDXT1ColorPalette(color0, color1, palette);
+        int indices = 0;
+        for (int i = 15; i >= 0; i--) {
+            int pixel = block[i];
+            int best = 3;
+            if (pixel >>> 24 >= DXT1_ALPHA_THRESHOLD) {
+                int bestError = Integer.MAX_VALUE;
+                for (int p = 0; p < 3; p++) {
+                    int e = colorDistance(pixel, palette[p]);
+                    if (e < bestError) {
+                        bestError = e;
+                        best = p;
+                    }
+                }
+            }
+            indices = (indices << 2) | best;
+        }
+        writeColorBlock(color0, color1, indices, out, offset);
+    }
+
+    /**
+     * Encodes blocks that are invisible or hold at most two colors without a
+     * search.
+     *
+     * @return whether the block was written
+     */
+    private static boolean encodeSimpleColorBlock(int[] block, byte[] out, int offset, CompressionQuality quality) {
+        int first = block[0] & 0xFFFFFF, second = first, alphaBits = 0;
+        boolean twoColors = true;
+        for (int pixel : block) {
+            int color = pixel & 0xFFFFFF;
+            alphaBits |= pixel;
+            if (color != first) {
+                if (second == first) {
+                    second = color;
+                } else if (color != second) {
+                    twoColors = false;
+                }
+            }
+        }
+        if ((alphaBits >>> 24) == 0) {
+            //nothing of the block is visible
+            writeColorBlock(0, 0, 0, out, offset);
+            return true;
+        }
+        if (second == first) {
+            encodeSingleColorBlock(first, out, offset);
+            return true;
+        }
+        if (twoColors) {
+            //if both colors survive 565 nothing can beat them, otherwise search as usual
+            int error = writeColorBlock(block, to565(first), to565(second), out, offset);
+            if (error == 0 || quality == CompressionQuality.RANGE_FIT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Encodes a block of one color with the endpoints whose two thirds entry
+     * comes closest to it in every channel.
+     */
+    static void encodeSingleColorBlock(int color, byte[] out, int offset) {
+        int r = SINGLE_COLOR_5[(color >> 16) & 0xFF];
+        int g = SINGLE_COLOR_6[(color >> 8) & 0xFF];
+        int b = SINGLE_COLOR_5[color & 0xFF];
+        int color0 = ((r >> 8) << 11) | ((g >> 8) << 5) | (b >> 8);
+        int color1 = ((r & 0xFF) << 11) | ((g & 0xFF) << 5) | (b & 0xFF);
+        if (color0 > color1) {
+            writeColorBlock(color0, color1, 0xAAAAAAAA, out, offset);
+        } else if (color0 < color1) {
+            //swapped endpoints, the one third entry is the same color
+            writeColorBlock(color1, color0, 0xFFFFFFFF, out, offset);
+        } else {
+            writeColorBlock(color0, color1, 0, out, offset);
+        }
+    }
+
+    static void writeColorBlock(int color0, int color1, int indices, byte[] out, int offset) {
+        out[offset] = (byte) color0;
+        out[offset + 1] = (byte) (color0 >> 8);
+        out[offset + 2] = (byte) color1;
+        out[offset + 3] = (byte) (color1 >> 8);
+        out[offset + 4] = (byte) indices;
+        out[offset + 5] = (byte) (indices >> 8);
+        out[offset + 6] = (byte) (indices >> 16);
+        out[offset + 7] = (byte) (indices >> 24);
+    }
+
+    /**
+     * Writes a four color block with the given endpoints, choosing the
+     * nearest palette entry for every pixel.
+     *
+     * @return squared error of the block
+     */
+    static int writeColorBlock(int[] block, int color0, int color1, byte[] out, int offset) {
+        if (color0 < color1) {
+            int swap = color0;
+            color0 = color1;
+            color1 = swap;
+        }
+        int[] palette = new int[4];
+        getColorPalette(color0, color1, palette);
+        int indices = 0, error = 0;
+        if (color0 != color1) {
+            for (int i = 15; i >= 0; i--) {
+                int pixel = block[i];
+                int best = 0, bestError = Integer.MAX_VALUE;
+                for (int p = 0; p < 4; p++) {
+                    int e = colorDistance(pixel, palette[p]);
+                    if (e < bestError) {
+                        bestError = e;
+                        best = p;
+                    }
+                }
+                indices = (indices << 2) | best;
+                error += bestError;
+            }
+        } else {
+            //equal endpoints would switch to three color mode in DXT1, use the first color only
+            for (int pixel : block) {
+                error += colorDistance(pixel, palette[0]);
+            }
+        }
+        writeColorBlock(color0, color1, indices, out, offset);
+        return error;
+    }
+
+    /**
+     * Encodes the alpha of a block as a DXT5 alpha block, using whichever of
+     * the five and seven value modes has the smaller error.
+     *
+     * @param block 16 ARGB pixels in row order
+     * @param out array receiving the 8 byte alpha block
+     * @param offset position of the alpha block in <code>out</code>
+     */
+    static void encodeAlphaBlock(int[] block, byte[] out, int offset) {
+        encodeChannelBlock(block, 24, out, offset);
+    }
+
+    /**
+     * Encodes one 8 bit channel of a block like a DXT5 alpha block, which is
+     * also the layout of BC4 blocks and both halves of BC5 blocks.
+     *
+     * @param block 16 ARGB pixels in row order
+     * @param shift bit position of the channel, 24 for alpha and 16 for red
+     * @param out array receiving the 8 byte block
+     * @param offset position of the block in <code>out</code>
+     */
+    static void encodeChannelBlock(int[] block, int shift, byte[] out, int offset) {
+        int min = 255, max = 0, min5 = 255, max5 = 0;
+        for (int pixel : block) {
+            int a = (pixel >>> shift) & 0xFF;
+            min = Math.min(min, a);
+            max = Math.max(max, a);
+            if (a != 0 && a != 255) {
+                min5 = Math.min(min5, a);
+                max5 = Math.max(max5, a);
+            }
+        }
+        if (min == max) {
+            writeAlphaBlock(min, min, 0L, out, offset);
+            return;
+        }
+        if (isTwoValued(block, shift, min, max)) {
+            //the seven value mode holds both exactly
+            long indices = 0;
+            for (int i = 15; i >= 0; i--) {
+                indices = (indices << 3) | (((block[i] >>> shift) & 0xFF) == max ? 0 : 1);
+            }
+            writeAlphaBlock(max, min, indices, out, offset);
+            return;
+        }
+        if (min5 > max5) {
+            //only values of 0 and 255, the fixed entries of the five value mode cover them
+            min5 = max5 = 0;
+        }
+
+        int[] palette = new int[8];
+        long[] indices = new long[2];
+        getAlphaPalette(max, min, palette);
+        int error7 = fitAlpha(block, shift, palette, indices, 0);
+        getAlphaPalette(min5, max5, palette);
+        int error5 = fitAlpha(block, shift, palette, indices, 1);
+        if (error5 < error7) {
+            writeAlphaBlock(min5, max5, indices[1], out, offset);
+        } else {
+            writeAlphaBlock(max, min, indices[0], out, offset);
+        }
+    }
+
+    private static boolean isTwoValued(int[] block, int shift, int min, int max) {
+        for (int pixel : block) {
+            int a = (pixel >>> shift) & 0xFF;
+            if (a != min && a != max) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void writeAlphaBlock(int alpha0, int alpha1, long indices, byte[] out, int offset) {
+        out[offset] = (byte) alpha0;
+        out[offset + 1] = (byte) alpha1;
+        for (int i = 0; i < 6; i++) {
+            out[offset + 2 + i] = (byte) (indices >>> (8 * i));
+        }
+    }
+
+    /**
+     * Expands both endpoints to 8 bits per channel and interpolates the four
+     * color palette.
+     */
+    static void getColorPalette(int color0, int color1, int[] palette) {
+        int c0 = from565(color0), c1 = from565(color1);
+        palette[0] = c0;
+        palette[1] = c1;
+        palette[2] = interpolate(c0, c1, 2, 1, 3);
+        palette[3] = interpolate(c0, c1, 1, 2, 3);
+    }
+
+    /**
+     * Builds the palette of a DXT1 block, the four color palette if
+     * <code>color0 &gt; color1</code> and otherwise three colors followed by
+     * transparent black.
+     */
+    static void getDXT1ColorPalette(int color0, int color1, int[] palette) {
+        if (color0 > color1) {
+            getColorPalette(color0, color1, palette);
+            return;
+        }
+        int c0 = from565(color0), c1 = from565(color1);
+        palette[0] = c0;
+        palette[1] = c1;
+        palette[2] = interpolate(c0, c1, 1, 1, 2);
+        palette[3] = 0;
+    }
+
+    /**
+     * Builds the eight value alpha palette, the seven value mode if
+     * <code>alpha0 &gt; alpha1</code> and the five value mode otherwise.
+     */
+    static void getAlphaPalette(int alpha0, int alpha1, int[] palette) {
+        palette[0] = alpha0;
+        palette[1] = alpha1;
+        if (alpha0 > alpha1) {
+            for (int i = 1; i < 7; i++) {
+                palette[i + 1] = ((7 - i) * alpha0 + i * alpha1) / 7;
+            }
+        } else {
+            for (int i = 1; i < 5; i++) {
+                palette[i + 1] = ((5 - i) * alpha0 + i * alpha1) / 5;
+            }
+            palette[6] = 0;
+            palette[7] = 255;
+        }
+    }
+
+    /**
+     * Chooses the nearest palette entry for the channel of every pixel.
+     *
+     * @param indices receives the packed 3 bit indices at <code>slot</code>
+     * @return squared error of the block
+     */
+    private static int fitAlpha(int[] block, int shift, int[] palette, long[] indices, int slot) {
+        long packed = 0;
+        int error = 0;
+        for (int i = 15; i >= 0; i--) {
+            int a = (block[i] >>> shift) & 0xFF;
+            int best = 0, bestError = Integer.MAX_VALUE;
+            for (int p = 0; p < 8; p++) {
+                int d = a - palette[p];
+                if (d * d < bestError) {
+                    bestError = d * d;
+                    best = p;
+                }
+            }
+            packed = (packed << 3) | best;
+            error += bestError;
+        }
+        indices[slot] = packed;
+        return error;
+    }
+
+    /**
+     * For every 8 bit value, finds the endpoints whose two thirds palette
+     * entry is nearest to it.
+     */
+    private static int[] createSingleColorTable(int bits) {
+        int levels = 1 << bits;
+        int[] table = new int[256];
+        for (int value = 0; value < 256; value++) {
+            int bestError = Integer.MAX_VALUE;
+            for (int e0 = 0; e0 < levels && bestError > 0; e0++) {
+                for (int e1 = 0; e1 < levels; e1++) {
+                    int c0 = bits == 5 ? e0 << 3 | e0 >> 2 : e0 << 2 | e0 >> 4;
+                    int c1 = bits == 5 ? e1 << 3 | e1 >> 2 : e1 << 2 | e1 >> 4;
+                    int error = Math.abs((2 * c0 + c1) / 3 - value);
+                    if (error < bestError) {
+                        bestError = error;
+                        table[value] = (e0 << 8) | e1;
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
+    static int to565(int pixel) {
+        int r = (((pixel >> 16) & 0xFF) * 31 + 127) / 255;
+        int g = (((pixel >> 8) & 0xFF) * 63 + 127) / 255;
+        int b = ((pixel & 0xFF) * 31 + 127) / 255;
+        return (r << 11) | (g << 5) | b;
+    }
+
+    static int from565(int color) {
+        int r = (color >> 11) & 0x1F;
+        int g = (color >> 5) & 0x3F;
+        int b = color & 0x1F;
+        return ((r << 3 | r >> 2) << 16) | ((g << 2 | g >> 4) << 8) | (b << 3 | b >> 2);
+    }
+
+    private static int interpolate(int c0, int c1, int w0, int w1, int divisor) {
+        int r = (w0 * ((c0 >> 16) & 0xFF) + w1 * ((c1 >> 16) & 0xFF)) / divisor;
+        int g = (w0 * ((c0 >> 8) & 0xFF) + w1 * ((c1 >> 8) & 0xFF)) / divisor;
+        int b = (w0 * (c0 & 0xFF) + w1 * (c1 & 0xFF)) / divisor;
+        return (r << 16) | (g << 8) | b;
+    }
+
+    private static int colorDistance(int pixel, int color) {
+        int r = ((pixel >> 16) & 0xFF) - ((color >> 16) & 0xFF);
+        int g = ((pixel >> 8) & 0xFF) - ((color >> 8) & 0xFF);
+        int b = (pixel & 0xFF) - (color & 0xFF);
+        return r * r + g * g + b * b;
+    }
+}
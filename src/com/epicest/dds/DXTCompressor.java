@@ -0,0 +1,507 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Block compressor for DXT1, DXT5, BC4, BC5 and BC7 textures. The quality
+ * only applies to color and BC7 blocks, alpha, BC4 and BC5 blocks always try
+ * both of their modes.
+ * <br><br>
+ * Every 4x4 block is encoded independently, so rows of blocks are split
+ * across a {@link ForkJoinPool} and written straight into the shared output
+ * array or buffer. The output is the same whatever the number of threads.
+ * <br><br>
+ * Dual flags repeat the same half twice, so levels whose bottom half is a
+ * copy of the top half only have the top half compressed and its blocks
+ * copied. Bottom halves that mirror the top half reuse its blocks with their
+ * indices reversed, which decodes to exactly the mirrored pixels, except in
+ * BC7, whose partitions are not symmetric.
+ * <br><br>
+ * Flat fields, stripes and torn away areas repeat the same block over and
+ * over, so every run of block rows keeps a small memo of the blocks it has
+ * compressed and copies repeats from it instead of encoding them again.
+ *
+ * @author Jair
+ */
+public class DXTCompressor {
+
+    /**
+     * Rows of blocks below which a task is not split any further
+     */
+    private static final int MIN_BLOCK_ROWS_PER_TASK = 4;
+
+    private static volatile boolean blockMemoEnabled = true;
+    private static final LongAdder blockMemoHits = new LongAdder();
+    private static final LongAdder blockMemoMisses = new LongAdder();
+
+    private DXTCompressor() {
+    }
+
+    /**
+     * Turns the memo of recently compressed blocks on or off. The output is
+     * the same either way, the memo only skips encoding blocks that were
+     * already encoded nearby. On by default.
+     *
+     * @param enabled whether repeated blocks are looked up in the memo
+     */
+    public static void setBlockMemoEnabled(boolean enabled) {
+        blockMemoEnabled = enabled;
+    }
+
+    /**
+     * @return number of blocks copied from the memo since the counters were
+     * last reset
+     */
+    public static long getBlockMemoHits() {
+        return blockMemoHits.sum();
+    }
+
+    /**
+     * @return number of blocks looked up in the memo and encoded since the
+     * counters were last reset
+     */
+    public static long getBlockMemoMisses() {
+        return blockMemoMisses.sum();
+    }
+
+    /**
+     * Sets the memo hit and miss counters back to 0.
+     */
+    public static void resetBlockMemoCounters() {
+        blockMemoHits.reset();
+        blockMemoMisses.reset();
+    }
+
+    /**
+     * Compresses ARGB pixels, on the pool of the calling thread if it is
+     * running in one and on the common pool otherwise.
+     *
+     * @param pixels ARGB pixels in row order
+     * @param width image width
+     * @param height image height
+     * @param format format to compress to
+     * @param quality how hard to search for block endpoints
+     * @return compressed blocks in row order
+     */
+    public static byte[] compress(int[] pixels, int width, int height, DXTFormat format, CompressionQuality quality) {
+        byte[] out = new byte[format.getSize(width, height)];
+        invoke(new LevelTask(pixels, null, width, height, format, quality, ByteBuffer.wrap(out)));
+        return out;
+    }
+
+    /**
+     * Compresses every level of a mip map chain into the given buffers, on
+     * the pool of the calling thread if it is running in one and on the
+     * common pool otherwise. All levels are split into tasks at once, so the
+     * small levels are compressed while the large ones are still running.
+     *
+     * @param mipMaps ARGB pixels of every level, starting with the full size
+     * image
+     * @param width full size image width
+     * @param height full size image height
+     * @param format format to compress to
+     * @param quality how hard to search for block endpoints
+     * @param out buffer for every level, written from its position on without
+     * moving it
+     */
+    public static void compressMipMaps(int[][] mipMaps, int width, int height, DXTFormat format,
+            CompressionQuality quality, ByteBuffer[] out) {
+        compressMipMaps(mipMaps, null, width, height, format, quality, out);
+    }
+
+    /**
+     * Compresses the blocks of a mip map chain whose pixels changed since an
+     * earlier chain of the same size and format was compressed into the given
+     * buffers. Blocks with the same pixels as before are left as they are, so
+     * the buffers end up as if the whole chain had been compressed again.
+     *
+     * @param mipMaps ARGB pixels of every level, starting with the full size
+     * image
+     * @param previous pixels of every level of the chain the buffers hold, or
+     * null to compress every block
+     * @param width full size image width
+     * @param height full size image height
+     * @param format format the buffers were compressed to
+     * @param quality quality the buffers were compressed with
+     * @param out buffer for every level, holding the earlier chain from its
+     * position on, which is not moved
+     * @return number of blocks that were compressed, not counting blocks
+     * copied from another half of their level
+     */
+    public static int recompressMipMaps(int[][] mipMaps, int[][] previous, int width, int height, DXTFormat format,
+            CompressionQuality quality, ByteBuffer[] out) {
+        if (previous != null && previous.length != mipMaps.length) {
+            throw new IllegalArgumentException("previous chain has " + previous.length + " levels instead of "
+                    + mipMaps.length);
+        }
+        return compressMipMaps(mipMaps, previous, width, height, format, quality, out);
+    }
+
+    private static int compressMipMaps(int[][] mipMaps, int[][] previous, int width, int height, DXTFormat format,
+            CompressionQuality quality, ByteBuffer[] out) {
+        LevelTask[] tasks = new LevelTask[mipMaps.length];
+        for (int i = 0; i < mipMaps.length; i++) {
+            int mipMapWidth = Math.max(1, width >> i), mipMapHeight = Math.max(1, height >> i);
+            if (out[i].remaining() < format.getSize(mipMapWidth, mipMapHeight)) {
+                throw new IllegalArgumentException("buffer of level " + i + " is too small");
+            }
+            tasks[i] = new LevelTask(mipMaps[i], previous == null ? null : previous[i], mipMapWidth, mipMapHeight,
+                    format, quality, out[i].slice());
+        }
+        return invoke(new RecursiveTask<Integer>() {
+            @Override
+            protected Integer compute() {
+                int compressed = 0;
+                for (LevelTask task : invokeAll(Arrays.asList(tasks))) {
+                    compressed += task.join();
+                }
+                return compressed;
+            }
+        });
+    }
+
+    private static <T> T invoke(ForkJoinTask<T> task) {
+        if (ForkJoinTask.inForkJoinPool()) {
+            return task.invoke();
+        } else {
+            return ForkJoinPool.commonPool().invoke(task);
+        }
+    }
+
+    /**
+     * Compresses a range of block rows into a buffer starting at the first
+     * block. Array backed buffers are written in place, others a row at a
+     * time. With previous pixels, blocks that didn't change are skipped and
+     * rows without changes aren't written.
+     *
+     * @return number of blocks compressed
+     */
+    static int compressBlockRows(int[] pixels, int[] previous, int width, int height, DXTFormat format,
+            CompressionQuality quality, ByteBuffer out, int startRow, int endRow) {
+        int blocksWide = (width + 3) / 4;
+        int blockSize = format.getBlockSize();
+        int rowSize = blocksWide * blockSize;
+        int[] block = new int[16];
+        int[] previousBlock = new int[16];
+        byte[] row = out.hasArray() ? out.array() : new byte[rowSize];
+        ByteBuffer target = out.duplicate();
+        BlockMemo memo = blockMemoEnabled ? new BlockMemo(blockSize) : null;
+        int compressed = 0;
+        for (int blockY = startRow; blockY < endRow; blockY++) {
+            int offset = out.hasArray() ? out.arrayOffset() + blockY * rowSize : 0;
+            int rowCompressed = 0;
+            for (int blockX = 0; blockX < blocksWide; blockX++) {
+                readBlock(pixels, width, height, blockX * 4, blockY * 4, block);
+                if (previous != null) {
+                    readBlock(previous, width, height, blockX * 4, blockY * 4, previousBlock);
+                    if (Arrays.equals(block, previousBlock)) {
+                        offset += blockSize;
+                        continue;
+                    }
+                    if (rowCompressed == 0 && !out.hasArray()) {
+                        //the blocks that are skipped have to stay as they are
+                        ((Buffer) target).position(blockY * rowSize);
+                        target.get(row);
+                    }
+                }
+                rowCompressed++;
+                if (memo == null || !memo.get(block, row, offset)) {
+                    encodeBlock(block, format, quality, row, offset);
+                    if (memo != null) {
+                        memo.put(block, row, offset);
+                    }
+                }
+                offset += blockSize;
+            }
+            if (!out.hasArray() && rowCompressed > 0) {
+                ((Buffer) target).position(blockY * rowSize);
+                target.put(row);
+            }
+            compressed += rowCompressed;
+        }
+        if (memo != null) {
+            blockMemoHits.add(memo.getHits());
+            blockMemoMisses.add(memo.getMisses());
+        }
+        return compressed;
+    }
+
+    /**
+     * Encodes a 4x4 block into an array.
+     */
+    private static void encodeBlock(int[] block, DXTFormat format, CompressionQuality quality, byte[] out,
+            int offset) {
+        switch (format) {
+            case DXT1:
+                DXTBlockEncoder.encodeDXT1Block(block, out, offset, quality);
+                break;
+            case DXT5:
+                DXTBlockEncoder.encodeAlphaBlock(block, out, offset);
+                DXTBlockEncoder.encodeColorBlock(block, out, offset + DXTBlockEncoder.HALF_BLOCK_SIZE, quality);
+                break;
+            case BC4:
+                DXTBlockEncoder.encodeChannelBlock(block, 16, out, offset);
+                break;
+            case BC7:
+                BC7BlockEncoder.encodeBlock(block, out, offset, quality);
+                break;
+            default:
+                DXTBlockEncoder.encodeChannelBlock(block, 16, out, offset);
+                DXTBlockEncoder.encodeChannelBlock(block, 8, out, offset + DXTBlockEncoder.HALF_BLOCK_SIZE);
+                break;
+        }
+    }
+
+    /**
+     * Whether the bottom half of an image repeats the top half, the halves
+     * being whole rows of blocks.
+     */
+    static boolean isBottomHalfCopied(int[] pixels, int width, int height) {
+        if (height % 8 != 0) {
+            return false;
+        }
+        int halfSize = width * height / 2;
+        for (int i = 0; i < halfSize; i++) {
+            if (pixels[i] != pixels[halfSize + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the bottom half of an image is the top half mirrored left to
+     * right, with whole blocks on both sides of the mirror axis.
+     */
+    static boolean isBottomHalfMirrored(int[] pixels, int width, int height) {
+        if (height % 8 != 0 || width % 4 != 0) {
+            return false;
+        }
+        int half = height / 2;
+        for (int y = 0; y < half; y++) {
+            int row = y * width, mirroredRow = (y + half) * width + width - 1;
+            for (int x = 0; x < width; x++) {
+                if (pixels[row + x] != pixels[mirroredRow - x]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fills the bottom half of a compressed level from its top half.
+     *
+     * @param mirrored whether to mirror the blocks left to right rather than
+     * copy them
+     */
+    private static void fillBottomHalf(ByteBuffer out, int width, int height, DXTFormat format, boolean mirrored) {
+        int blocksWide = (width + 3) / 4;
+        int blockSize = format.getBlockSize();
+        int rowSize = blocksWide * blockSize;
+        int halfRows = height / 8;
+        byte[] row = new byte[rowSize];
+        byte[] mirroredRow = new byte[rowSize];
+        ByteBuffer target = out.duplicate();
+        for (int blockY = 0; blockY < halfRows; blockY++) {
+            ((Buffer) target).position(blockY * rowSize);
+            target.get(row);
+            if (mirrored) {
+                for (int blockX = 0; blockX < blocksWide; blockX++) {
+                    int offset = (blocksWide - 1 - blockX) * blockSize;
+                    System.arraycopy(row, blockX * blockSize, mirroredRow, offset, blockSize);
+                    mirrorBlock(mirroredRow, offset, format);
+                }
+            }
+            ((Buffer) target).position((halfRows + blockY) * rowSize);
+            target.put(mirrored ? mirroredRow : row);
+        }
+    }
+
+    /**
+     * Mirrors a block left to right by reversing the indices of every row,
+     * keeping its endpoints.
+     */
+    private static void mirrorBlock(byte[] block, int offset, DXTFormat format) {
+        switch (format) {
+            case DXT1:
+                mirrorColorIndices(block, offset);
+                break;
+            case DXT5:
+                mirrorChannelIndices(block, offset);
+                mirrorColorIndices(block, offset + DXTBlockEncoder.HALF_BLOCK_SIZE);
+                break;
+            case BC4:
+                mirrorChannelIndices(block, offset);
+                break;
+            case BC5:
+                mirrorChannelIndices(block, offset);
+                mirrorChannelIndices(block, offset + DXTBlockEncoder.HALF_BLOCK_SIZE);
+                break;
+            default:
+                throw new IllegalArgumentException(format + " blocks can't be mirrored");
+        }
+    }
+
+    /**
+     * Reverses the four 2 bit indices in each of the last 4 bytes of a color
+     * block.
+     */
+    private static void mirrorColorIndices(byte[] block, int offset) {
+        for (int i = offset + 4; i < offset + 8; i++) {
+            int b = block[i];
+            block[i] = (byte) ((b & 0x03) << 6 | (b & 0x0C) << 2 | (b & 0x30) >> 2 | (b & 0xC0) >> 6);
+        }
+    }
+
+    /**
+     * Reverses the four 3 bit indices of every row in the 48 index bits that
+     * follow the two endpoints of an alpha or channel block.
+     */
+    private static void mirrorChannelIndices(byte[] block, int offset) {
+        long indices = 0;
+        for (int i = 0; i < 6; i++) {
+            indices |= (block[offset + 2 + i] & 0xFFL) << (8 * i);
+        }
+        long mirrored = 0;
+        for (int pixel = 0; pixel < 16; pixel++) {
+            int mirroredPixel = (pixel & ~3) | (3 - (pixel & 3));
+            mirrored |= ((indices >>> (3 * pixel)) & 7) << (3 * mirroredPixel);
+        }
+        for (int i = 0; i < 6; i++) {
+            block[offset + 2 + i] = (byte) (mirrored >>> (8 * i));
+        }
+    }
+
+    /**
+     * Copies a 4x4 block, repeating the last row and column for blocks that
+     * stick out of the image.
+     */
+    private static void readBlock(int[] pixels, int width, int height, int x, int y, int[] block) {
+        for (int row = 0; row < 4; row++) {
+            int rowOffset = Math.min(y + row, height - 1) * width;
+            for (int column = 0; column < 4; column++) {
+                block[row * 4 + column] = pixels[rowOffset + Math.min(x + column, width - 1)];
+            }
+        }
+    }
+
+    /**
+     * Compresses one level, only compressing the top half if the bottom half
+     * repeats it, and only the blocks that changed if there are previous
+     * pixels.
+     */
+    private static final class LevelTask extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] pixels;
+        private final int[] previous;
+        private final int width;
+        private final int height;
+        private final DXTFormat format;
+        private final CompressionQuality quality;
+        private final ByteBuffer out;
+
+        LevelTask(int[] pixels, int[] previous, int width, int height, DXTFormat format, CompressionQuality quality,
+                ByteBuffer out) {
+            this.pixels = pixels;
+            this.previous = previous;
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.quality = quality;
+            this.out = out;
+        }
+
+        @Override
+        protected Integer compute() {
+            boolean copied = isBottomHalfCopied(pixels, width, height);
+            boolean mirrored = !copied && format != DXTFormat.BC7 && isBottomHalfMirrored(pixels, width, height);
+            int blockRows = (height + 3) / 4;
+            if (copied || mirrored) {
+                int compressed = new CompressTask(pixels, previous, width, height, format, quality, out, 0,
+                        blockRows / 2).invoke();
+                fillBottomHalf(out, width, height, format, mirrored);
+                return compressed;
+            }
+            if (previous != null && format != DXTFormat.BC7 && isBottomHalfMirrored(previous, width, height)) {
+                //mirrored blocks aren't what compressing the bottom half gives, so none of them are kept
+                CompressTask top = new CompressTask(pixels, previous, width, height, format, quality, out, 0,
+                        blockRows / 2);
+                CompressTask bottom = new CompressTask(pixels, null, width, height, format, quality, out,
+                        blockRows / 2, blockRows);
+                invokeAll(top, bottom);
+                return top.join() + bottom.join();
+            }
+            return new CompressTask(pixels, previous, width, height, format, quality, out, 0, blockRows).invoke();
+        }
+    }
+
+    /**
+     * Splits block rows in halves until they are small enough to compress.
+     */
+    private static final class CompressTask extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] pixels;
+        private final int[] previous;
+        private final int width;
+        private final int height;
+        private final DXTFormat format;
+        private final CompressionQuality quality;
+        private final ByteBuffer out;
+        private final int startRow;
+        private final int endRow;
+
+        CompressTask(int[] pixels, int[] previous, int width, int height, DXTFormat format,
+                CompressionQuality quality, ByteBuffer out, int startRow, int endRow) {
+            this.pixels = pixels;
+            this.previous = previous;
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.quality = quality;
+            this.out = out;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (endRow - startRow <= MIN_BLOCK_ROWS_PER_TASK) {
+                return compressBlockRows(pixels, previous, width, height, format, quality, out, startRow, endRow);
+            }
+            int middle = (startRow + endRow) >>> 1;
+            CompressTask top = new CompressTask(pixels, previous, width, height, format, quality, out, startRow,
+                    middle);
+            CompressTask bottom = new CompressTask(pixels, previous, width, height, format, quality, out, middle,
+                    endRow);
+            invokeAll(top, bottom);
+            return top.join() + bottom.join();
+        }
+    }
+}
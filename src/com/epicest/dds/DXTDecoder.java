@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Decodes DXT1, DXT5, BC4, BC5 and BC7 blocks into ARGB pixels. BC4 decodes
+ * to gray and BC5 to red and green, both opaque.
+ * <br><br>
+ * Blocks are read straight from the given buffer, which may be a mapped
+ * file, and written straight into the output array. Rows of blocks are split
+ * across a {@link ForkJoinPool} like they are by {@link DXTCompressor}.
+ *
+ * @author Jair
+ */
+public class DXTDecoder {
+
+    /**
+     * Rows of blocks below which a task is not split any further
+     */
+    private static final int MIN_BLOCK_ROWS_PER_TASK = 16;
+
+    private DXTDecoder() {
+    }
+
+    /**
+     * Decodes a compressed image into the bank of an image's data buffer, on
+     * the pool of the calling thread if it is running in one and on the
+     * common pool otherwise.
+     *
+     * @param data blocks in row order, starting at the buffer's position
+     * @param format format of the blocks
+     * @param width image width
+     * @param height image height
+     * @param out receives the ARGB pixels in row order, from its offset on
+     */
+    public static void decode(ByteBuffer data, DXTFormat format, int width, int height, DataBufferInt out) {
+        if (out.getSize() < width * height) {
+            throw new IllegalArgumentException("data buffer is too small");
+        }
+        decode(data, format, width, height, out.getData(), out.getOffset());
+    }
+
+    /**
+     * Decodes a compressed image, like
+     * {@link #decode(ByteBuffer, DXTFormat, int, int, DataBufferInt)}.
+     *
+     * @param data blocks in row order, starting at the buffer's position
+     * @param format format of the blocks
+     * @param width image width
+     * @param height image height
+     * @param out receives the ARGB pixels in row order
+     */
+    public static void decode(ByteBuffer data, DXTFormat format, int width, int height, int[] out) {
+        decode(data, format, width, height, out, 0);
+    }
+
+    private static void decode(ByteBuffer data, DXTFormat format, int width, int height, int[] out, int offset) {
+        if (data.remaining() < format.getSize(width, height)) {
+            throw new IllegalArgumentException("data is too short");
+        }
+        //absolute reads don't move the buffer, so one view is shared by all tasks
+        ByteBuffer blocks = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        DecodeTask task = new DecodeTask(blocks, format, width, height, out, offset, 0, (height + 3) / 4);
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.invoke();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+    }
+
+    /**
+     * Decodes a range of block rows from little endian blocks starting at
+     * index 0 of the buffer.
+     */
+    static void decodeBlockRows(ByteBuffer blocks, DXTFormat format, int width, int height, int[] out,
+            int outOffset, int startRow, int endRow) {
+        int blocksWide = (width + 3) / 4;
+        int blockSize = format.getBlockSize();
+        int[] block = new int[16];
+        int[] palette = new int[8];
+        int[] values = new int[16];
+        for (int blockY = startRow; blockY < endRow; blockY++) {
+            int offset = blockY * blocksWide * blockSize;
+            int rows = Math.min(4, height - blockY * 4);
+            for (int blockX = 0; blockX < blocksWide; blockX++) {
+                switch (format) {
+                    case DXT1:
+                        decodeColorBlock(blocks.getLong(offset), true, palette, block);
+                        break;
+                    case DXT5:
+                        decodeColorBlock(blocks.getLong(offset + DXTBlockEncoder.HALF_BLOCK_SIZE), false, palette,
+                                block);
+                        decodeChannelBlock(blocks.getLong(offset), palette, values);
+                        for (int i = 0; i < 16; i++) {
+                            block[i] = values[i] << 24 | (block[i] & 0xFFFFFF);
+                        }
+                        break;
+                    case BC4:
+                        decodeChannelBlock(blocks.getLong(offset), palette, values);
+                        for (int i = 0; i < 16; i++) {
+                            block[i] = 0xFF000000 | values[i] * 0x010101;
+                        }
+                        break;
+                    case BC7:
+                        BC7BlockDecoder.decodeBlock(blocks.getLong(offset),
+                                blocks.getLong(offset + DXTBlockEncoder.HALF_BLOCK_SIZE), block);
+                        break;
+                    default:
+                        decodeChannelBlock(blocks.getLong(offset), palette, values);
+                        for (int i = 0; i < 16; i++) {
+                            block[i] = 0xFF000000 | values[i] << 16;
+                        }
+                        decodeChannelBlock(blocks.getLong(offset + DXTBlockEncoder.HALF_BLOCK_SIZE), palette, values);
+                        for (int i = 0; i < 16; i++) {
+                            block[i] |= values[i] << 8;
+                        }
+                        break;
+                }
+                offset += blockSize;
+
+                int columns = Math.min(4, width - blockX * 4);
+                for (int row = 0; row < rows; row++) {
+                    System.arraycopy(block, row * 4, out, outOffset + (blockY * 4 + row) * width + blockX * 4,
+                            columns);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes a DXT1 or DXT5 color block into opaque pixels, or transparent
+     * black for the fourth entry of three color DXT1 blocks. DXT5 color
+     * blocks are always in four color mode.
+     */
+    private static void decodeColorBlock(long bits, boolean dxt1, int[] palette, int[] block) {
+        int color0 = (int) bits & 0xFFFF, color1 = (int) (bits >> 16) & 0xFFFF;
+        int indices = (int) (bits >>> 32);
+        if (dxt1) {
+            DXTBlockEncoder.getDXT1ColorPalette(color0, color1, palette);
+        } else {
+            DXTBlockEncoder.getColorPalette(color0, color1, palette);
+        }
+        boolean threeColor = dxt1 && color0 <= color1;
+        for (int i = 0; i < 16; i++) {
+            int index = (indices >>> (2 * i)) & 3;
+            block[i] = threeColor && index == 3 ? 0 : 0xFF000000 | palette[index];
+        }
+    }
+
+    /**
+     * Decodes an 8 bit channel stored like a DXT5 alpha block.
+     */
+    private static void decodeChannelBlock(long bits, int[] palette, int[] values) {
+        DXTBlockEncoder.getAlphaPalette((int) bits & 0xFF, (int) (bits >> 8) & 0xFF, palette);
+        long indices = bits >>> 16;
+        for (int i = 0; i < 16; i++) {
+            values[i] = palette[(int) (indices >>> (3 * i)) & 7];
+        }
+    }
+
+    /**
+     * Splits block rows in halves until they are small enough to decode.
+     */
+    private static final class DecodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer blocks;
+        private final DXTFormat format;
+        private final int width;
+        private final int height;
+        private final int[] out;
+        private final int outOffset;
+        private final int startRow;
+        private final int endRow;
+
+        DecodeTask(ByteBuffer blocks, DXTFormat format, int width, int height, int[] out, int outOffset,
+                int startRow, int endRow) {
+            this.blocks = blocks;
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.out = out;
+            this.outOffset = outOffset;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (endRow - startRow <= MIN_BLOCK_ROWS_PER_TASK) {
+                decodeBlockRows(blocks, format, width, height, out, outOffset, startRow, endRow);
+                return;
+            }
+            int middle = (startRow + endRow) >>> 1;
+            invokeAll(new DecodeTask(blocks, format, width, height, out, outOffset, startRow, middle),
+                    new DecodeTask(blocks, format, width, height, out, outOffset, middle, endRow));
+        }
+    }
+}
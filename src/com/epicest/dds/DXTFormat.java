@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import jogl.DDSImage;
+
+/**
+ * Block compressed formats the encoder writes.
+ * <br><br>
+ * BC4 and BC5 suit masks and normal maps, at the size of DXT1 and DXT5
+ * respectively but with every channel stored like DXT5 alpha. BC7 takes as
+ * much space as DXT5 but picks one of eight block modes per block, so it
+ * keeps gradients and alpha much better at the cost of a far slower encoder.
+ *
+ * @author Jair
+ */
+public enum DXTFormat {
+    /**
+     * Color only, with an optional fully transparent color, 8 bytes per block
+     */
+    DXT1(8, DDSImage.D3DFMT_DXT1, 71, false),
+    /**
+     * Color with interpolated alpha, 16 bytes per block
+     */
+    DXT5(16, DDSImage.D3DFMT_DXT5, 77, false),
+    /**
+     * Single channel, taken from red and decoded as gray, 8 bytes per block
+     */
+    BC4(8, DDSHeader.fourCC("ATI1"), 80, true),
+    /**
+     * Red and green channels, 16 bytes per block
+     */
+    BC5(16, DDSHeader.fourCC("ATI2"), 83, true),
+    /**
+     * Color and alpha in one of eight block modes, 16 bytes per block
+     */
+    BC7(16, 0, 98, true);
+
+    private final int blockSize;
+    private final int fourCC;
+    private final int dxgiFormat;
+    private final boolean dx10Header;
+
+    DXTFormat(int blockSize, int fourCC, int dxgiFormat, boolean dx10Header) {
+        this.blockSize = blockSize;
+        this.fourCC = fourCC;
+        this.dxgiFormat = dxgiFormat;
+        this.dx10Header = dx10Header;
+    }
+
+    /**
+     * @return size of a 4x4 block in bytes
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return four character code of the format in DDS headers without a DX10
+     * extension, 0 for BC7, which only exists with one
+     */
+    public int getFourCC() {
+        return fourCC;
+    }
+
+    /**
+     * @return unsigned normalized DXGI format of the DX10 extension
+     */
+    public int getDXGIFormat() {
+        return dxgiFormat;
+    }
+
+    /**
+     * @return whether files are written with a DX10 extension, as they are
+     * for the formats that have no DirectX 9 format code
+     */
+    public boolean isWrittenWithDX10Header() {
+        return dx10Header;
+    }
+
+    /**
+     * @return whether the format keeps an alpha channel
+     */
+    public boolean hasAlpha() {
+        return this == DXT1 || this == DXT5 || this == BC7;
+    }
+
+    /**
+     * Number of bytes an image of the given size takes in this format.
+     *
+     * @param width image width
+     * @param height image height
+     * @return compressed size in bytes
+     */
+    public int getSize(int width, int height) {
+        return ((width + 3) / 4) * ((height + 3) / 4) * blockSize;
+    }
+
+    /**
+     * Picks the smallest format that keeps the alpha of an image: DXT1 when
+     * every pixel is either opaque or fully transparent, DXT5 otherwise.
+     *
+     * @param pixels ARGB pixels
+     * @return format for the pixels
+     */
+    public static DXTFormat select(int[] pixels) {
+        for (int pixel : pixels) {
+            int alpha = pixel >>> 24;
+            if (alpha != 0 && alpha != 0xFF) {
+                return DXT5;
+            }
+        }
+        return DXT1;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes DDS files like {@link DDSWriter}, but remembers the mip map chains
+ * of the last few files it wrote. Writing one of those files again only
+ * compresses the blocks whose pixels changed and patches them into the file.
+ * <br><br>
+ * A file is only patched when its bytes still hash to what this writer left
+ * and the image has the same size, format and quality as before, so files
+ * overwritten by anything else are written in full. Patched files are byte for byte
+ * the same as files written in full. Writes are serialized.
+ *
+ * @author Jair
+ */
+public class IncrementalDDSWriter {
+
+    /**
+     * Number of files whose chains are kept, about 5.5 MiB each for a
+     * 1024x1024 texture
+     */
+    private static final int MAX_FILES = 4;
+
+    private static final class Chain {
+
+        final int[][] mipMaps;
+        final int width;
+        final int height;
+        final DXTFormat format;
+        final CompressionQuality quality;
+        final long size;
+        /**
+         * SHA-256 of the file as it was written
+         */
+        final byte[] digest;
+
+        Chain(int[][] mipMaps, int width, int height, DXTFormat format, CompressionQuality quality, long size,
+                byte[] digest) {
+            this.mipMaps = mipMaps;
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.quality = quality;
+            this.size = size;
+            this.digest = digest;
+        }
+    }
+
+    private final Map<Path, Chain> chains = new LinkedHashMap<Path, Chain>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Chain> eldest) {
+            return size() > MAX_FILES;
+        }
+    };
+    private int lastCompressedBlocks;
+    private int lastBlocks;
+
+    /**
+     * Compresses an image and writes it as a DDS file, patching the file if
+     * it was written by this writer before.
+     *
+     * @param file destination file
+     * @param image image to compress
+     * @param generateMipMaps whether to write a full mip map chain
+     * @param format format to write, or null to pick one from the alpha of the
+     * image with {@link DXTFormat#select(int[])}
+     * @param quality how hard the encoder searches for block endpoints
+     * @param sync whether to wait until the file is on the disk
+     * @return format that was written
+     * @throws IOException if the file could not be written
+     */
+    public synchronized DXTFormat write(File file, BufferedImage image, boolean generateMipMaps, DXTFormat format,
+            CompressionQuality quality, boolean sync) throws IOException {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = DDSWriter.getPixels(image);
+        if (format == null) {
+            format = DXTFormat.select(pixels);
+        }
+        int[][] mipMaps = DDSWriter.getMipMaps(pixels, width, height, generateMipMaps);
+        //forgotten until the write succeeds, a failed write leaves the file in an unknown state
+        Chain previous = chains.remove(path);
+        boolean patch = previous != null && previous.width == width && previous.height == height
+                && previous.format == format && previous.quality == quality
+                && previous.mipMaps.length == mipMaps.length && isUnchanged(path, previous);
+        lastCompressedBlocks = DDSWriter.writeMipMaps(file, mipMaps, patch ? previous.mipMaps : null, width, height,
+                format, quality, sync);
+        lastBlocks = DDSWriter.getBlockCount(format, width, height, mipMaps.length);
+
+        //the full size level can be the pixel array of the image, which the caller may draw into again
+        mipMaps[0] = mipMaps[0].clone();
+        chains.put(path, new Chain(mipMaps, width, height, format, quality, Files.size(path), hash(path)));
+        return format;
+    }
+
+    /**
+     * @return number of blocks the last write compressed, not counting blocks
+     * copied from another half of their level
+     */
+    public synchronized int getLastCompressedBlocks() {
+        return lastCompressedBlocks;
+    }
+
+    /**
+     * @return number of blocks in the file of the last write
+     */
+    public synchronized int getLastBlocks() {
+        return lastBlocks;
+    }
+
+    /**
+     * Forgets every remembered chain, so the next writes are full ones.
+     */
+    public synchronized void clear() {
+        chains.clear();
+    }
+
+    private static boolean isUnchanged(Path path, Chain chain) throws IOException {
+        //the size rules out most other writes without reading the file
+        return Files.isRegularFile(path) && Files.size(path) == chain.size
+                && Arrays.equals(hash(path), chain.digest);
+    }
+
+    private static byte[] hash(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.dds;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds mip map chains from ARGB pixel arrays with a 2x2 box filter.
+ * <br><br>
+ * Every level is reduced from the one before it. Rows of large levels are
+ * split across a {@link ForkJoinPool}, and the output is the same whatever
+ * the number of threads.
+ *
+ * @author Jair
+ */
+public class MipMapGenerator {
+
+    /**
+     * Output rows below which a task is not split any further
+     */
+    private static final int MIN_ROWS_PER_TASK = 16;
+
+    private MipMapGenerator() {
+    }
+
+    /**
+     * Builds the mip map chain of an image down to 1x1, on the pool of the
+     * calling thread if it is running in one and on the common pool
+     * otherwise.
+     *
+     * @param pixels ARGB pixels of the full size image in row order, used as
+     * the first level without copying
+     * @param width image width
+     * @param height image height
+     * @param alphaWeighted whether colors are weighted by their alpha, so
+     * transparent pixels do not bleed into visible ones
+     * @return pixels of every level, starting with the full size image
+     */
+    public static int[][] generate(int[] pixels, int width, int height, boolean alphaWeighted) {
+        int[][] levels = new int[DDSWriter.getMipMapCount(width, height)][];
+        levels[0] = pixels;
+        for (int i = 1; i < levels.length; i++) {
+            int newWidth = Math.max(1, width / 2), newHeight = Math.max(1, height / 2);
+            levels[i] = new int[newWidth * newHeight];
+            ReduceTask task = new ReduceTask(levels[i - 1], width, height, levels[i], newWidth, alphaWeighted,
+                    0, newHeight);
+            if (ForkJoinTask.inForkJoinPool()) {
+                task.invoke();
+            } else {
+                ForkJoinPool.commonPool().invoke(task);
+            }
+            width = newWidth;
+            height = newHeight;
+        }
+        return levels;
+    }
+
+    /**
+     * Reduces a range of output rows. Odd sizes drop their last row or
+     * column, and sizes of 1 are kept.
+     */
+    static void reduceRows(int[] source, int width, int height, int[] out, int newWidth, boolean alphaWeighted,
+            int startRow, int endRow) {
+        int nextColumn = width > 1 ? 1 : 0;
+        int nextRow = height > 1 ? width : 0;
+        for (int y = startRow; y < endRow; y++) {
+            int sourceOffset = (height > 1 ? 2 * y : y) * width;
+            int offset = y * newWidth;
+            for (int x = 0; x < newWidth; x++) {
+                int i = sourceOffset + (width > 1 ? 2 * x : x);
+                out[offset + x] = average(source[i], source[i + nextColumn],
+                        source[i + nextRow], source[i + nextRow + nextColumn], alphaWeighted);
+            }
+        }
+    }
+
+    /**
+     * Rounded average of four pixels.
+     */
+    private static int average(int p0, int p1, int p2, int p3, boolean alphaWeighted) {
+        int a0 = p0 >>> 24, a1 = p1 >>> 24, a2 = p2 >>> 24, a3 = p3 >>> 24;
+        int alpha = a0 + a1 + a2 + a3;
+        if (!alphaWeighted || alpha == 0 || alpha == 4 * 0xFF) {
+            int r = ((p0 >> 16) & 0xFF) + ((p1 >> 16) & 0xFF) + ((p2 >> 16) & 0xFF) + ((p3 >> 16) & 0xFF);
+            int g = ((p0 >> 8) & 0xFF) + ((p1 >> 8) & 0xFF) + ((p2 >> 8) & 0xFF) + ((p3 >> 8) & 0xFF);
+            int b = (p0 & 0xFF) + (p1 & 0xFF) + (p2 & 0xFF) + (p3 & 0xFF);
+            return ((alpha + 2) >> 2) << 24 | ((r + 2) >> 2) << 16 | ((g + 2) >> 2) << 8 | ((b + 2) >> 2);
+        }
+        int half = alpha >> 1;
+        int r = (((p0 >> 16) & 0xFF) * a0 + ((p1 >> 16) & 0xFF) * a1 + ((p2 >> 16) & 0xFF) * a2
+                + ((p3 >> 16) & 0xFF) * a3 + half) / alpha;
+        int g = (((p0 >> 8) & 0xFF) * a0 + ((p1 >> 8) & 0xFF) * a1 + ((p2 >> 8) & 0xFF) * a2
+                + ((p3 >> 8) & 0xFF) * a3 + half) / alpha;
+        int b = ((p0 & 0xFF) * a0 + (p1 & 0xFF) * a1 + (p2 & 0xFF) * a2 + (p3 & 0xFF) * a3 + half) / alpha;
+        return ((alpha + 2) >> 2) << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Splits output rows in halves until they are small enough to reduce.
+     */
+    private static final class ReduceTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] source;
+        private final int width;
+        private final int height;
+        private final int[] out;
+        private final int newWidth;
+        private final boolean alphaWeighted;
+        private final int startRow;
+        private final int endRow;
+
+        ReduceTask(int[] source, int width, int height, int[] out, int newWidth, boolean alphaWeighted,
+                int startRow, int endRow) {
+            this.source = source;
+            this.width = width;
+            this.height = height;
+            this.out = out;
+            this.newWidth = newWidth;
+            this.alphaWeighted = alphaWeighted;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (endRow - startRow <= MIN_ROWS_PER_TASK) {
+                reduceRows(source, width, height, out, newWidth, alphaWeighted, startRow, endRow);
+                return;
+            }
+            int middle = (startRow + endRow) >>> 1;
+            invokeAll(new ReduceTask(source, width, height, out, newWidth, alphaWeighted, startRow, middle),
+                    new ReduceTask(source, width, height, out, newWidth, alphaWeighted, middle, endRow));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.flagreplacer;
+
+import com.epicest.dds.DXTFormat;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Record of the textures written by an export and the format each one was
+ * written in.
+ * <br><br>
+ * Textures can be added from several threads at once.
+ *
+ * @author Jair
+ */
+public class ExportReport {
+
+    private final List<String> lines = new ArrayList<>();
+    private final Map<DXTFormat, Integer> counts = new EnumMap<>(DXTFormat.class);
+    private long totalSize;
+
+    /**
+     * Records a written texture.
+     *
+     * @param textureFile path of the texture
+     * @param format format it was written in
+     * @param automatic whether the format was picked from the texture's alpha
+     * @param size file size in bytes
+     */
+    public synchronized void addTexture(Path textureFile, DXTFormat format, boolean automatic, long size) {
+        String reason;
+        if (!automatic) {
+            reason = "as chosen";
+        } else if (format == DXTFormat.DXT1) {
+            reason = "no partially transparent pixels";
+        } else {
+            reason = "partially transparent pixels";
+        }
+        lines.add(String.format("%s: %s, %d KiB (%s)", textureFile, format, (size + 1023) / 1024, reason));
+        counts.merge(format, 1, Integer::sum);
+        totalSize += size;
+    }
+
+    /**
+     * @return one line per format with the number of textures written in it,
+     * followed by the total size
+     */
+    public synchronized String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<DXTFormat, Integer> count : counts.entrySet()) {
+            summary.append(count.getValue()).append(count.getValue() == 1 ? " texture as " : " textures as ")
+                    .append(count.getKey()).append('\n');
+        }
+        return summary.append(String.format("%.1f MiB in total", totalSize / (1024.0 * 1024.0))).toString();
+    }
+
+    /**
+     * Prints every texture in the order they were written, followed by the
+     * summary.
+     *
+     * @param out stream the report is printed to
+     */
+    public synchronized void print(PrintStream out) {
+        for (String line : lines) {
+            out.println(line);
+        }
+        out.println(getSummary());
+    }
+}
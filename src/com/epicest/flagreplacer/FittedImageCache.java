@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.flagreplacer;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of input images that have already been scaled to the size of
+ * the area they are drawn into.
+ * <br><br>
+ * Entries are keyed by the identity of the source image, the size of the
+ * destination rectangle, whether the image is mirrored and the interpolation
+ * used, so changing wear options never rescales the input again. Sources are
+ * only weakly referenced, and the entries of collected sources are dropped,
+ * so the cache never keeps an input image alive. Fitted
+ * pixels are drawn over opaque black like the cleared texture, which means
+ * they can be copied straight into place. The least recently used entries are
+ * evicted once the cached pixels exceed the budget.
+ *
+ * @author Jair
+ */
+final class FittedImageCache {
+
+    private static final class Key extends WeakReference<BufferedImage> {
+
+        final int sourceHash;
+        final int width;
+        final int height;
+        final boolean flip;
+        final Object interpolation;
+
+        Key(BufferedImage source, int width, int height, boolean flip, Object interpolation,
+                ReferenceQueue<BufferedImage> queue) {
+            super(source, queue);
+            this.sourceHash = System.identityHashCode(source);
+            this.width = width;
+            this.height = height;
+            this.flip = flip;
+            this.interpolation = interpolation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            //a collected source matches nothing but its own key
+            BufferedImage source = get();
+            return source != null && source == other.get()
+                    && width == other.width
+                    && height == other.height
+                    && flip == other.flip
+                    && interpolation.equals(other.interpolation);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = sourceHash;
+            hash = 31 * hash + width;
+            hash = 31 * hash + height;
+            hash = 31 * hash + (flip ? 1 : 0);
+            hash = 31 * hash + interpolation.hashCode();
+            return hash;
+        }
+    }
+
+    private final long maxPixels;
+    private final LinkedHashMap<Key, int[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReferenceQueue<BufferedImage> collectedSources = new ReferenceQueue<>();
+    private long cachedPixels;
+
+    /**
+     * @param maxPixels number of pixels kept before the least recently used
+     * entries are evicted
+     */
+    FittedImageCache(long maxPixels) {
+        this.maxPixels = maxPixels;
+    }
+
+    /**
+     * Returns the source scaled to the given size, drawing it if it isn't
+     * cached yet. The returned pixels are shared and must not be modified.
+     *
+     * @param source image to fit
+     * @param width width of the destination rectangle
+     * @param height height of the destination rectangle
+     * @param flip whether the image is mirrored horizontally
+     * @param interpolation value for {@link RenderingHints#KEY_INTERPOLATION}
+     * @return <code>width * height</code> ARGB pixels
+     */
+    int[] getFitted(BufferedImage source, int width, int height, boolean flip, Object interpolation) {
+        Key key = new Key(source, width, height, flip, interpolation, collectedSources);
+        synchronized (this) {
+            removeCollected();
+            int[] pixels = entries.get(key);
+            if (pixels != null) {
+                return pixels;
+            }
+        }
+        //draw outside the lock, two threads missing the same key at once only costs a duplicate draw
+        int[] pixels = fit(source, width, height, flip, interpolation);
+        synchronized (this) {
+            if (entries.put(key, pixels) == null) {
+                cachedPixels += pixels.length;
+            }
+            Iterator<Map.Entry<Key, int[]>> eldest = entries.entrySet().iterator();
+            while (cachedPixels > maxPixels && entries.size() > 1) {
+                cachedPixels -= eldest.next().getValue().length;
+                eldest.remove();
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Drops the entries of sources that have been garbage collected.
+     */
+    private void removeCollected() {
+        Reference<? extends BufferedImage> collected;
+        while ((collected = collectedSources.poll()) != null) {
+            //lookup keys of collected sources are queued too, but were never added
+            int[] pixels = entries.remove(collected);
+            if (pixels != null) {
+                cachedPixels -= pixels.length;
+            }
+        }
+    }
+
+    private static int[] fit(BufferedImage source, int width, int height, boolean flip, Object interpolation) {
+        BufferedImage fitted = new BufferedImage(width, height, FlagRenderer.DEFAULT_IMAGE_TYPE);
+        Graphics2D g = fitted.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+        //opaque black, same as clearing the texture
+        g.clearRect(0, 0, width, height);
+        if (flip) {
+            g.drawImage(source, width, 0, -width, height, null);
+        } else {
+            g.drawImage(source, 0, 0, width, height, null);
+        }
+        g.dispose();
+        return ((DataBufferInt) fitted.getRaster().getDataBuffer()).getData();
+    }
+}
@@ -0,0 +1,455 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.flagreplacer;
+
+import com.epicest.dds.CompressionQuality;
+import com.epicest.dds.DXTFormat;
+import com.epicest.flagreplacer.FlagReplacer.ReplacementType;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless entry point that renders and exports replacer packs for many input
+ * images and presets at once.
+ * <br><br>
+ * Every input image gets its own pack folder inside the output folder, named
+ * after the image, so images whose names only differ in their folder or
+ * extension are rejected. Each image and preset combination is composited and
+ * exported as a separate task on a {@link ForkJoinPool}, so packs are built on
+ * every available core.
+ *
+ * @author Jair
+ */
+public class FlagBatchExporter {
+
+    private static final String USAGE
+            = "Usage: FlagBatchExporter [options] <image>...\n"
+            + "\n"
+            + "Options:\n"
+            + "  -o, --output <dir>      folder the packs are written to (default: current folder)\n"
+            + "  -p, --preset <material> material path to replace, may be repeated (default: all)\n"
+            + "  -t, --threads <n>       number of worker threads (default: all cores)\n"
+            + "  -q, --quality <q>       texture quality: draft, normal or release (default: normal)\n"
+            + "  -f, --format <f>        texture format: dxt5, bc7, or auto for DXT1 when the alpha allows\n"
+            + "                          it (default: dxt5)\n"
+            + "      --no-stained        don't apply stains\n"
+            + "      --torn              apply the torn mask\n"
+            + "      --blasted1          apply the blasted (variant 1) mask\n"
+            + "      --blasted2          apply the blasted (variant 2) mask\n"
+            + "      --no-flagpole       don't draw the flagpole connection\n"
+            + "      --flagpole-color <rrggbb> color of the flagpole connection\n"
+            + "      --flip              mirror the backside of dual flags\n"
+            + "      --cache <dir>       folder finished textures are cached in across runs\n"
+            + "                          (default: .76FlagReplacer/texture-cache in the home folder)\n"
+            + "      --cache-size <MiB>  byte budget of the cache (default: 256)\n"
+            + "      --no-cache          always composite and compress every texture\n";
+
+    private final FlagRenderer renderer;
+    private final Path outputDirectory;
+    private final List<FlagPreset> presets;
+    private final FlagSettings settings;
+    private final CompressionQuality quality;
+    private final DXTFormat format;
+    private final TextureCache cache;
+    private final ExportReport report = new ExportReport();
+
+    /**
+     * @param renderer renderer shared by all tasks
+     * @param outputDirectory folder the packs are written to
+     * @param presets materials to replace for every image
+     * @param settings compositing options, the type is taken from each preset
+     * @param quality how hard the texture encoder searches
+     * @param format texture format, or null to write DXT1 when a texture's
+     * alpha allows it and DXT5 otherwise
+     * @param cache cache of finished textures, or null to render every
+     * texture
+     */
+    public FlagBatchExporter(FlagRenderer renderer, Path outputDirectory, List<FlagPreset> presets,
+            FlagSettings settings, CompressionQuality quality, DXTFormat format, TextureCache cache) {
+        this.renderer = renderer;
+        this.outputDirectory = outputDirectory;
+        this.presets = presets;
+        this.settings = settings;
+        this.quality = quality;
+        this.format = format;
+        this.cache = cache;
+    }
+
+    /**
+     * Runs the batch export from the command line.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Parses the arguments and exports every requested pack.
+     *
+     * @param args the command line arguments
+     * @param out stream progress is reported to
+     * @param err stream errors are reported to
+     * @return process exit code
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        Path outputDirectory = Paths.get("");
+        List<String> presetPaths = new ArrayList<>();
+        List<File> images = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean stained = true, torn = false, blasted1 = false, blasted2 = false, flagpole = true, flip = false;
+        Color flagpoleColor = FlagSettings.DEFAULT_FLAGPOLE_CONNECTION_COLOR;
+        CompressionQuality quality = CompressionQuality.DEFAULT;
+        DXTFormat format = DXTFormat.DXT5;
+        Path cacheDirectory = null;
+        long cacheSize = TextureCache.DEFAULT_MAX_SIZE;
+        boolean useCache = true;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-o":
+                    case "--output":
+                        outputDirectory = Paths.get(args[++i]);
+                        break;
+                    case "-p":
+                    case "--preset":
+                        presetPaths.add(args[++i]);
+                        break;
+                    case "-t":
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "-q":
+                    case "--quality":
+                        quality = parseQuality(args[++i]);
+                        break;
+                    case "-f":
+                    case "--format":
+                        format = parseFormat(args[++i]);
+                        break;
+                    case "--no-stained":
+                        stained = false;
+                        break;
+                    case "--torn":
+                        torn = true;
+                        break;
+                    case "--blasted1":
+                        blasted1 = true;
+                        break;
+                    case "--blasted2":
+                        blasted2 = true;
+                        break;
+                    case "--no-flagpole":
+                        flagpole = false;
+                        break;
+                    case "--flagpole-color":
+                        flagpoleColor = new Color(Integer.parseInt(args[++i], 16));
+                        break;
+                    case "--flip":
+                        flip = true;
+                        break;
+                    case "--cache":
+                        cacheDirectory = Paths.get(args[++i]);
+                        break;
+                    case "--cache-size":
+                        cacheSize = Long.parseLong(args[++i]) * 1024 * 1024;
+                        break;
+                    case "--no-cache":
+                        useCache = false;
+                        break;
+                    case "-h":
+                    case "--help":
+                        out.print(USAGE);
+                        return 0;
+                    default:
+                        if (args[i].startsWith("-")) {
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                        images.add(new File(args[i]));
+                }
+            }
+            if (threads < 1) {
+                throw new IllegalArgumentException("Thread count must be at least 1");
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            err.println(e instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : e.getMessage());
+            err.print(USAGE);
+            return 2;
+        }
+        if (images.isEmpty()) {
+            err.print(USAGE);
+            return 2;
+        }
+        try {
+            getPackNames(images);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return 2;
+        }
+
+        FlagPresetListModel presetListModel = new FlagPresetListModel();
+        List<FlagPreset> presets = new ArrayList<>();
+        if (presetPaths.isEmpty()) {
+            for (int i = 0; i < presetListModel.getSize(); i++) {
+                presets.add(presetListModel.getElementAt(i));
+            }
+        } else {
+            for (String presetPath : presetPaths) {
+                FlagPreset preset = presetListModel.findByMaterialPath(presetPath);
+                if (preset == null) {
+                    err.println("Unknown preset " + presetPath);
+                    return 2;
+                }
+                presets.add(preset);
+            }
+        }
+
+        FlagRenderer renderer;
+        try {
+            renderer = new FlagRenderer();
+        } catch (IOException ioe) {
+            Logger.getLogger(FlagBatchExporter.class.getName()).log(Level.SEVERE, "IOException occured while loading initial images.", ioe);
+            return 1;
+        }
+        FlagSettings settings = new FlagSettings(ReplacementType.FLAG_SINGLE, stained, torn, blasted1, blasted2,
+                flagpole, flip, flagpoleColor);
+        TextureCache cache = useCache ? new TextureCache(cacheDirectory == null
+                ? TextureCache.getDefaultDirectory() : cacheDirectory, cacheSize) : null;
+        FlagBatchExporter exporter = new FlagBatchExporter(renderer, outputDirectory, presets, settings, quality,
+                format, cache);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long start = System.nanoTime();
+            int failures = exporter.export(images, pool, err);
+            int packs = images.size() * presets.size() - failures;
+            exporter.getReport().print(out);
+            out.printf("Exported %d of %d textures in %.1f s%n", packs, images.size() * presets.size(),
+                    (System.nanoTime() - start) / 1e9);
+            if (cache != null) {
+                out.printf("Texture cache: %d hits, %d misses%n", cache.getHits(), cache.getMisses());
+            }
+            return failures == 0 ? 0 : 1;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Exports every image and preset combination on the given pool, waiting
+     * for all of them to finish.
+     *
+     * @param images input flag images
+     * @param pool pool the tasks are run on
+     * @param err stream failures are reported to
+     * @return number of textures that failed to export
+     * @throws IllegalArgumentException if two images would be written to the
+     * same pack folder
+     */
+    public int export(List<File> images, ForkJoinPool pool, PrintStream err) {
+        List<String> packNames = getPackNames(images);
+        //images are hashed up front but only decoded once a texture isn't cached
+        List<ForkJoinTask<byte[]>> hashes = new ArrayList<>();
+        for (File image : images) {
+            hashes.add(pool.submit(() -> cache == null ? null : TextureCache.hash(image)));
+        }
+
+        int failures = 0;
+        List<ForkJoinTask<?>> exports = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < images.size(); i++) {
+            File image = images.get(i);
+            byte[] inputHash;
+            Path packDirectory = outputDirectory.resolve(packNames.get(i));
+            try {
+                inputHash = hashes.get(i).get();
+                FlagExporter.writeReadme(packDirectory);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return failures + (images.size() - i) * presets.size();
+            } catch (ExecutionException | IOException e) {
+                err.println(image + ": " + (e.getCause() != null ? e.getCause() : e));
+                failures += presets.size();
+                continue;
+            }
+            LazyImage flagImage = new LazyImage(image, presets.size());
+            for (FlagPreset preset : presets) {
+                exports.add(pool.submit(() -> {
+                    try {
+                        exportPreset(packDirectory, preset, flagImage, inputHash);
+                    } finally {
+                        flagImage.release();
+                    }
+                    return null;
+                }));
+                names.add(image + " -> " + preset.materialPath);
+            }
+        }
+
+        for (int i = 0; i < exports.size(); i++) {
+            try {
+                exports.get(i).get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return failures + exports.size() - i;
+            } catch (ExecutionException ee) {
+                err.println(names.get(i) + ": " + ee.getCause());
+                Logger.getLogger(FlagBatchExporter.class.getName()).log(Level.FINE, names.get(i), ee.getCause());
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Writes the material and texture of one preset to a pack.
+     */
+    private void exportPreset(Path packDirectory, FlagPreset preset, LazyImage flagImage, byte[] inputHash)
+            throws IOException {
+        //presets drawn the same share their cached texture, like in FlagExporter.exportAll
+        FlagSettings presetSettings = FlagRenderer.getDrawnSettings(settings.withType(preset.type));
+        FlagExporter.writeMaterial(packDirectory, preset);
+        if (cache == null) {
+            FlagExporter.writeTexture(packDirectory, preset,
+                    renderer.render(flagImage.get(), presetSettings), quality, format, null, report);
+            return;
+        }
+        try {
+            FlagExporter.writeTexture(packDirectory, preset, () -> {
+                try {
+                    return renderer.render(flagImage.get(), presetSettings);
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }, quality, format, null, cache, TextureCache.getKey(inputHash, presetSettings,
+                    FlagRenderer.TEXTURE_SIZE, format, quality), report);
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
+        }
+    }
+
+    /**
+     * @return formats of the textures written so far
+     */
+    public ExportReport getReport() {
+        return report;
+    }
+
+    /**
+     * @return the format, or null for automatic
+     */
+    private static DXTFormat parseFormat(String name) {
+        switch (name) {
+            case "dxt5":
+                return DXTFormat.DXT5;
+            case "bc7":
+                return DXTFormat.BC7;
+            case "auto":
+                return null;
+            default:
+                throw new IllegalArgumentException("Unknown format " + name);
+        }
+    }
+
+    private static CompressionQuality parseQuality(String name) {
+        switch (name) {
+            case "draft":
+                return CompressionQuality.RANGE_FIT;
+            case "normal":
+                return CompressionQuality.CLUSTER_FIT;
+            case "release":
+                return CompressionQuality.ITERATIVE_CLUSTER_FIT;
+            default:
+                throw new IllegalArgumentException("Unknown quality " + name);
+        }
+    }
+
+    /**
+     * Names of the pack folders for the input images, their file names
+     * without the extension.
+     *
+     * @throws IllegalArgumentException if two images have the same name,
+     * ignoring case as windows does, as their packs would overwrite each
+     * other
+     */
+    private static List<String> getPackNames(List<File> images) {
+        List<String> names = new ArrayList<>();
+        Map<String, File> byName = new HashMap<>();
+        for (File image : images) {
+            String name = image.getName();
+            int dot = name.lastIndexOf('.');
+            name = dot > 0 ? name.substring(0, dot) : name;
+            File other = byName.putIfAbsent(name.toLowerCase(Locale.ROOT), image);
+            if (other != null) {
+                throw new IllegalArgumentException(other + " and " + image + " would both be exported to the pack folder "
+                        + name + ", rename one of them");
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * Input image decoded by the first task that needs it, and let go once
+     * every task using it is done, so only the images being exported are
+     * held in memory.
+     */
+    private static final class LazyImage {
+
+        private final File file;
+        private int users;
+        private BufferedImage image;
+
+        LazyImage(File file, int users) {
+            this.file = file;
+            this.users = users;
+        }
+
+        synchronized BufferedImage get() throws IOException {
+            if (image == null) {
+                image = FlagRenderer.readFlagImage(file);
+            }
+            return image;
+        }
+
+        /**
+         * Called by every task once it is done with the image.
+         */
+        synchronized void release() {
+            if (--users == 0) {
+                image = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.flagreplacer;
+
+import java.util.stream.IntStream;
+
+/**
+ * Composites the flag texture layers in one pass over the pixels of
+ * <code>TYPE_INT_ARGB</code> rasters.
+ * <br><br>
+ * Replaces the chain of <code>drawImage</code> calls that used to clear the
+ * texture, fill the flagpole connection, multiply the stains and apply every
+ * alpha mask one after the other. The integer math mirrors what those calls
+ * did: stains use the formula of <code>BlendComposite.Multiply</code>, and
+ * masks use the same 8 bit multiply and divide tables as the Java2D loops
+ * behind <code>AlphaComposite.DstIn</code>, so the result matches the old
+ * output pixel for pixel.
+ * <br><br>
+ * Layers are given as rows of the texture width and are repeated vertically,
+ * so a 512 row layer covers both halves of a dual flag texture.
+ *
+ * @author Jair
+ */
+final class FlagCompositor {
+
+    /**
+     * Number of rows handed to a single task.
+     */
+    private static final int ROWS_PER_TASK = 64;
+
+    /**
+     * <code>MUL8[a][b]</code>, <code>a * b / 255</code> rounded like Java2D.
+     */
+    private static final byte[][] MUL8 = new byte[256][256];
+    /**
+     * <code>DIV8[a][b]</code>, <code>b * 255 / a</code> rounded and clamped
+     * like Java2D.
+     */
+    private static final byte[][] DIV8 = new byte[256][256];
+
+    static {
+        //same construction as the tables in Java2D's AlphaMath.c
+        for (int i = 1; i < 256; i++) {
+            int inc = (i << 16) + (i << 8) + i;
+            int val = inc + (1 << 23);
+            for (int j = 1; j < 256; j++) {
+                MUL8[i][j] = (byte) (val >>> 24);
+                val += inc;
+            }
+        }
+        for (int i = 1; i < 256; i++) {
+            int inc = (int) (((0xFFL << 24) + i / 2) / i);
+            int val = 1 << 23;
+            for (int j = 0; j < i; j++) {
+                DIV8[i][j] = (byte) (val >>> 24);
+                val += inc;
+            }
+            for (int j = i; j < 256; j++) {
+                DIV8[i][j] = (byte) 255;
+            }
+        }
+    }
+
+    private FlagCompositor() {
+    }
+
+    /**
+     * Composites all layers into the output.
+     *
+     * @param base fitted flag image, already drawn over the cleared texture
+     * @param output pixels that receive the result, may be the same array as
+     * <code>base</code>
+     * @param width texture width
+     * @param height texture height
+     * @param flagpoleWidth width of the flagpole connection column, 0 for none
+     * @param flagpoleColor opaque ARGB color of the flagpole connection
+     * @param stains stains layer, or null for none
+     * @param wear combined alpha masks, or null for none
+     * @param layerHeight height of the stains and mask layers
+     */
+    static void composite(int[] base, int[] output, int width, int height,
+            int flagpoleWidth, int flagpoleColor, int[] stains, WearMasks.Combination wear, int layerHeight) {
+        int tasks = (height + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+        IntStream.range(0, tasks).parallel().forEach(task -> {
+            int endRow = Math.min(height, (task + 1) * ROWS_PER_TASK);
+            for (int y = task * ROWS_PER_TASK; y < endRow; y++) {
+                compositeRow(base, output, y * width, (y % layerHeight) * width, width,
+                        flagpoleWidth, flagpoleColor, stains, wear);
+            }
+        });
+    }
+
+    private static void compositeRow(int[] base, int[] output, int offset, int layerOffset, int width,
+            int flagpoleWidth, int flagpoleColor, int[] stains, WearMasks.Combination wear) {
+        for (int x = 0; x < width; x++) {
+            int pixel = x < flagpoleWidth ? flagpoleColor : base[offset + x];
+            if (stains != null) {
+                //BlendComposite.Multiply
+                int stain = stains[layerOffset + x];
+                int sa = stain >>> 24;
+                int a = pixel >>> 24;
+                int r = (((stain >> 16) & 0xFF) * ((pixel >> 16) & 0xFF) + 2) >> 8;
+                int g = (((stain >> 8) & 0xFF) * ((pixel >> 8) & 0xFF) + 2) >> 8;
+                int b = ((stain & 0xFF) * (pixel & 0xFF) + 2) >> 8;
+                a = Math.min(255, sa + a - sa * a / 255);
+                pixel = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+            if (wear != null) {
+                int i = layerOffset + x;
+                if (wear.bits != null) {
+                    if ((wear.bits[i >>> 6] & (1L << i)) == 0) {
+                        pixel = 0;
+                    }
+                } else {
+                    int ma = wear.alpha[i] & 0xFF;
+                    if (ma == 0) {
+                        pixel = 0;
+                    } else if (ma != 0xFF) {
+                        if (wear.planes.length == 1) {
+                            pixel = dstIn(pixel, ma);
+                        } else {
+                            //partially transparent, apply the masks one by one like drawImage did
+                            for (byte[] plane : wear.planes) {
+                                pixel = dstIn(pixel, plane[i] & 0xFF);
+                            }
+                        }
+                    }
+                }
+            }
+            output[offset + x] = pixel;
+        }
+    }
+
+    /**
+     * <code>AlphaComposite.DstIn</code> for one pixel, colors are
+     * premultiplied and divided back.
+     */
+    private static int dstIn(int pixel, int ma) {
+        if (ma == 0xFF) {
+            return pixel;
+        }
+        int a = pixel >>> 24;
+        int resA = a == 0 ? 0 : MUL8[ma][a] & 0xFF;
+        if (resA == 0) {
+            return 0;
+        }
+        int r = MUL8[resA][(pixel >> 16) & 0xFF] & 0xFF;
+        int g = MUL8[resA][(pixel >> 8) & 0xFF] & 0xFF;
+        int b = MUL8[resA][pixel & 0xFF] & 0xFF;
+        if (resA < 0xFF) {
+            r = DIV8[resA][r] & 0xFF;
+            g = DIV8[resA][g] & 0xFF;
+            b = DIV8[resA][b] & 0xFF;
+        }
+        return (resA << 24) | (r << 16) | (g << 8) | b;
+    }
+}
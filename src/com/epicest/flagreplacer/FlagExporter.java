@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.flagreplacer;
+
+import com.epicest.dds.CompressionQuality;
+import com.epicest.dds.DDSWriter;
+import com.epicest.dds.DXTFormat;
+import com.epicest.dds.IncrementalDDSWriter;
+import com.epicest.flagreplacer.FlagReplacer.ReplacementType;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes the texture and material files of a replacer pack.
+ * <br><br>
+ * Holds no state, so packs can be written from several threads at once as long
+ * as two threads don't write the same preset into the same folder.
+ *
+ * @author Jair
+ */
+public class FlagExporter {
+
+    private FlagExporter() {
+    }
+
+    /**
+     * Writes the readme, material and texture for a preset.
+     *
+     * @param saveDirectory root folder of the replacer pack
+     * @param preset material being replaced
+     * @param textureOutput composited flag texture
+     * @param quality how hard the texture encoder searches
+     * @param format texture format, or null to write DXT1 when the texture's
+     * alpha allows it and DXT5 otherwise
+     * @param writer writer that patches textures it wrote before, or null to
+     * always write them in full
+     * @param report report the texture is recorded in
+     * @throws IOException if any of the files could not be written
+     */
+    public static void export(Path saveDirectory, FlagPreset preset, BufferedImage textureOutput,
+            CompressionQuality quality, DXTFormat format, IncrementalDDSWriter writer, ExportReport report)
+            throws IOException {
+        writeReadme(saveDirectory);
+        writeMaterial(saveDirectory, preset);
+        writeTexture(saveDirectory, preset, textureOutput, quality, format, writer, report);
+    }
+
+    /**
+     * Copies the readme into the root of the replacer pack.
+     *
+     * @param saveDirectory root folder of the replacer pack
+     * @throws IOException if the readme could not be written
+     */
+    public static void writeReadme(Path saveDirectory) throws IOException {
+        Files.createDirectories(saveDirectory);
+        try (InputStream readmeStream = getResourceStream("/export/readme.txt")) {
+            Files.copy(readmeStream, saveDirectory.resolve("readme.txt"), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes the material file for a preset, pointing it at the preset's
+     * texture.
+     *
+     * @param saveDirectory root folder of the replacer pack
+     * @param preset material being replaced
+     * @throws IOException if the material could not be written
+     */
+    public static void writeMaterial(Path saveDirectory, FlagPreset preset) throws IOException {
+        writeMaterial(saveDirectory, preset, preset);
+    }
+
+    /**
+     * Writes the material file for a preset, pointing it at the texture of
+     * another preset that looks the same.
+     *
+     * @param saveDirectory root folder of the replacer pack
+     * @param preset material being replaced
+     * @param texturePreset preset whose texture the material uses
+     * @throws IOException if the material could not be written
+     */
+    public static void writeMaterial(Path saveDirectory, FlagPreset preset, FlagPreset texturePreset)
+            throws IOException {
+        Path materialFile = saveDirectory.resolve(preset.materialPath.replace('\\', File.separatorChar));
+        //Create materials folder, if it doesn't already exist
+        Files.createDirectories(materialFile.getParent());
+        byte[] materialFileData;
+        try (InputStream materialExportStream = getResourceStream(preset.type == ReplacementType.FLAG_SINGLE
+                ? "/export/material-single.bgsm"
+                : "/export/material-dual.bgsm")) {
+            materialFileData = readFully(materialExportStream);
+        }
+        //replace materialfile bytes 0x59-0x5A with bytes from materialIndex
+        String materialIndex = getMaterialIndex(texturePreset);
+        materialFileData[0x59] = (byte) materialIndex.charAt(0);
+        materialFileData[0x5A] = (byte) materialIndex.charAt(1);
+        Files.write(materialFile, materialFileData, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Compresses and writes the texture for a preset.
+     *
+     * @param saveDirectory root folder of the replacer pack
+     * @param preset material being replaced
+     * @param textureOutput composited flag texture
+     * @param quality how hard the encoder searches
+     * @param format texture format, or null to write DXT1 when the texture's
+     * alpha allows it and DXT5 otherwise
+     * @param writer writer that patches textures it wrote before, or null to
+     * always write them in full
+     * @param report report the texture is recorded in
+     * @throws IOException if the texture could not be written
+     */
+    public static void writeTexture(Path saveDirectory, FlagPreset preset, BufferedImage textureOutput,
+            CompressionQuality quality, DXTFormat format, IncrementalDDSWriter writer, ExportReport report)
+            throws IOException {
+        Path textureFile = saveDirectory.resolve(getTexturePath(preset));
+        Files.createDirectories(textureFile.getParent());
+        DXTFormat written = writer == null
+                ? DDSWriter.write(textureFile.toFile(), textureOutput, true, format, quality, false)
+                : writer.write(textureFile.toFile(), textureOutput, true, format, quality, false);
+        report.addTexture(textureFile, written, format == null, Files.size(textureFile));
+    }
+
+    /**
+     * Copies the texture for a preset out of a cache, or renders, writes and
+     * caches it if the cache doesn't have it.
+     *
+     * @param saveDirectory root folder of the replacer pack
+     * @param preset material being replaced
+     * @param render renders the composited flag texture, only called if the
+     * texture isn't cached
+     * @param quality how hard the encoder searches
+     * @param format texture format, or null to write DXT1 when the texture's
+     * alpha allows it and DXT5 otherwise
+     * @param writer writer that patches textures it wrote before, or null to
+     * always write them in full
+     * @param cache cache of finished textures
+     * @param cacheKey {@link TextureCache#getKey} of the texture
+     * @param report report the texture is recorded in
+     * @throws IOException if the texture could not be written
+     */
+    public static void writeTexture(Path saveDirectory, FlagPreset preset, Supplier<BufferedImage> render,
+            CompressionQuality quality, DXTFormat format, IncrementalDDSWriter writer, TextureCache cache,
+            String cacheKey, ExportReport report) throws IOException {
+        Path textureFile = saveDirectory.resolve(getTexturePath(preset));
+        Files.createDirectories(textureFile.getParent());
+        DXTFormat cached = cache.copyTo(cacheKey, textureFile);
+        if (cached != null) {
+            report.addTexture(textureFile, cached, format == null, Files.size(textureFile));
+            return;
+        }
+        writeTexture(saveDirectory, preset, render.get(), quality, format, writer, report);
+        try {
+            cache.put(cacheKey, textureFile);
+        } catch (IOException ioe) {
+            //the texture itself was written, it just has to be compressed again next time
+            Logger.getLogger(FlagExporter.class.getName()).log(Level.WARNING, "Could not cache " + textureFile, ioe);
+        }
+    }
+
+    /**
+     * Writes a pack replacing every given preset with the same flag.
+     * <br><br>
+     * Presets of the same type get the same texture, and so do types that
+     * are drawn the same, see {@link FlagRenderer#getDrawnSettings}. Every
+     * distinct texture is copied from the cache or composited and compressed
+     * once, in parallel with the others. It is written under the index of
+     * the first preset using it, and every material of those presets points
+     * at it.
+     *
+     * @param saveDirectory root folder of the replacer pack
+     * @param presets materials being replaced
+     * @param renderer renderer compositing the textures
+     * @param flagImage input flag image, or null for the no flag image
+     * @param inputHash {@link TextureCache#hash} of the input image file, or
+     * null for the no flag image
+     * @param settings compositing options, the type is taken from each preset
+     * @param quality how hard the encoder searches
+     * @param format texture format, or null to write DXT1 when a texture's
+     * alpha allows it and DXT5 otherwise
+     * @param cache cache of finished textures, or null to render every
+     * texture
+     * @param report report the textures are recorded in
+     * @param pool pool the textures and materials are written on
+     * @return number of textures written
+     * @throws IOException if any of the files could not be written
+     */
+    public static int exportAll(Path saveDirectory, List<FlagPreset> presets, FlagRenderer renderer,
+            BufferedImage flagImage, byte[] inputHash, FlagSettings settings, CompressionQuality quality,
+            DXTFormat format, TextureCache cache, ExportReport report, ForkJoinPool pool) throws IOException {
+        writeReadme(saveDirectory);
+        //types drawn the same share one texture, so every group is a distinct texture
+        Map<FlagSettings, List<FlagPreset>> textures = new LinkedHashMap<>();
+        for (FlagPreset preset : presets) {
+            textures.computeIfAbsent(FlagRenderer.getDrawnSettings(settings.withType(preset.type)),
+                    drawn -> new ArrayList<>()).add(preset);
+        }
+
+        List<ForkJoinTask<?>> writes = new ArrayList<>();
+        for (Map.Entry<FlagSettings, List<FlagPreset>> texture : textures.entrySet()) {
+            FlagSettings drawn = texture.getKey();
+            FlagPreset texturePreset = texture.getValue().get(0);
+            writes.add(pool.submit(() -> {
+                if (cache == null) {
+                    writeTexture(saveDirectory, texturePreset, renderer.render(flagImage, drawn), quality, format,
+                            null, report);
+                } else {
+                    writeTexture(saveDirectory, texturePreset, () -> renderer.render(flagImage, drawn), quality,
+                            format, null, cache, getCacheKey(inputHash, drawn, format, quality), report);
+                }
+                return null;
+            }));
+            for (FlagPreset preset : texture.getValue()) {
+                writes.add(pool.submit(() -> {
+                    writeMaterial(saveDirectory, preset, texturePreset);
+                    return null;
+                }));
+            }
+        }
+        for (ForkJoinTask<?> write : writes) {
+            get(write);
+        }
+        return textures.size();
+    }
+
+    private static String getCacheKey(byte[] inputHash, FlagSettings settings, DXTFormat format,
+            CompressionQuality quality) {
+        return TextureCache.getKey(inputHash, settings, FlagRenderer.TEXTURE_SIZE, format, quality);
+    }
+
+    /**
+     * Waits for a task, passing on its IOException.
+     */
+    private static <T> T get(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted");
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException) ee.getCause();
+            }
+            throw new IOException(ee.getCause());
+        }
+    }
+
+    /**
+     * Two digit index the material file uses to reference its texture.
+     *
+     * @param preset material being replaced
+     * @return index such as "07"
+     */
+    public static String getMaterialIndex(FlagPreset preset) {
+        return String.format("%02d", preset.index);
+    }
+
+    /**
+     * Path of a preset's texture, relative to the root of the replacer pack.
+     *
+     * @param preset material being replaced
+     * @return relative texture path
+     */
+    public static String getTexturePath(FlagPreset preset) {
+        char sep = File.separatorChar;
+        return "textures" + sep + "egfr" + sep + "SetDressing" + sep + "texture-" + getMaterialIndex(preset) + "-d.dds";
+    }
+
+    private static InputStream getResourceStream(String resourcePath) throws IOException {
+        InputStream stream = FlagExporter.class.getResourceAsStream(resourcePath);
+        if (stream == null) {
+            throw new IOException("Missing resource " + resourcePath);
+        }
+        return stream;
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
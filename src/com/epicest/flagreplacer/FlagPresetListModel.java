@@ -20,8 +20,10 @@ import com.epicest.flagreplacer.FlagReplacer.ReplacementType;
 import java.util.List;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,11 +43,15 @@ public class FlagPresetListModel implements ListModel<FlagPreset> {
     public FlagPresetListModel() {
         list = new FlagPreset[0];
         try {
-            FileReader fileReader = new FileReader(getClass().getResource("/presets/presets.txt").getFile());
+            InputStream presetStream = getClass().getResourceAsStream("/presets/presets.txt");
+            if (presetStream == null) {
+                throw new FileNotFoundException("/presets/presets.txt");
+            }
 
             List<FlagPreset> presets = new ArrayList<>();
 
-            try (BufferedReader bufferedReader = new BufferedReader(fileReader)) {
+            //read through the class loader so presets also load from inside the jar
+            try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(presetStream, StandardCharsets.UTF_8))) {
                 int i = 0;
                 String nextLine;
                 while ((nextLine = bufferedReader.readLine()) != null) {
@@ -70,6 +76,24 @@ public class FlagPresetListModel implements ListModel<FlagPreset> {
         }
     }
 
+    /**
+     * Finds a preset by its material path, ignoring case and path separator
+     * style.
+     *
+     * @param materialPath material path such as
+     * <code>materials\atx\...\flag.bgsm</code>
+     * @return matching preset, or null if there is none
+     */
+    public FlagPreset findByMaterialPath(String materialPath) {
+        String normalized = materialPath.replace('/', '\\');
+        for (FlagPreset preset : list) {
+            if (preset.materialPath.equalsIgnoreCase(normalized)) {
+                return preset;
+            }
+        }
+        return null;
+    }
+
     @Override
     public int getSize() {
         return list.length;
@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.flagreplacer;
+
+import com.epicest.dds.DDSReader;
+import com.epicest.flagreplacer.FlagReplacer.ReplacementType;
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+import org.jdesktop.swingx.graphics.BlendComposite;
+
+/**
+ * Composites flag textures from an input image and a set of
+ * {@link FlagSettings}.
+ * <br><br>
+ * Does not touch any Swing components, so it can be shared between the UI and
+ * headless exports. Rendering into different targets from several threads at
+ * once is safe.
+ *
+ * @author Jair
+ */
+public class FlagRenderer {
+
+    /**
+     * Width and height of the exported texture
+     */
+    public static final int TEXTURE_SIZE = 1024;
+    /**
+     * Width of the flagpole connection column
+     */
+    public static final int FLAGPOLE_CONNECTION_WIDTH = 13;
+    /**
+     * Width and height of the preview shown in the UI
+     */
+    public static final int PREVIEW_SIZE = 128;
+    /**
+     * Standardized image type to make working with images easier.
+     */
+    public static final int DEFAULT_IMAGE_TYPE = BufferedImage.TYPE_INT_ARGB;
+    /**
+     * Number of fitted input pixels kept, enough for a few full size layouts
+     */
+    private static final long FITTED_IMAGE_CACHE_PIXELS = 8L * TEXTURE_SIZE * TEXTURE_SIZE;
+
+    // Constant compositing images.
+    /**
+     * No flag found image for compositing
+     */
+    private final BufferedImage compositingNullFlag;
+    /**
+     * Stains image for compositing
+     */
+    private final BufferedImage compositingStains;
+    /**
+     * Torn alpha for compositing
+     */
+    private final BufferedImage compositingTorn;
+    /**
+     * Blasted variant 1 alpha for compositing
+     */
+    private final BufferedImage compositingBlasted1;
+    /**
+     * Blasted variant 2 alpha for compositing
+     */
+    private final BufferedImage compositingBlasted2;
+    /**
+     * Layers used for full resolution textures
+     */
+    private final Layers textureLayers;
+    /**
+     * Pre-shrunk layers used for previews
+     */
+    private final Layers previewLayers;
+    /**
+     * Input images already scaled to the texture and preview layouts
+     */
+    private final FittedImageCache fittedImageCache = new FittedImageCache(FITTED_IMAGE_CACHE_PIXELS);
+
+    /**
+     * Compositing layers prepared for one output size.
+     * <br><br>
+     * Pixels are full height for single flags and half height for the two
+     * halves of dual flags.
+     */
+    private static final class Layers {
+
+        final int size;
+        final int flagpoleWidth;
+        final BufferedImage nullFlag;
+        final int[] stainsFull, stainsHalf;
+        final WearMasks wearFull, wearHalf;
+
+        Layers(int size, int flagpoleWidth, BufferedImage nullFlag, BufferedImage stains,
+                BufferedImage torn, BufferedImage blasted1, BufferedImage blasted2) {
+            this.size = size;
+            this.flagpoleWidth = flagpoleWidth;
+            this.nullFlag = nullFlag;
+            stainsFull = getLayerPixels(stains, size, size);
+            stainsHalf = getLayerPixels(stains, size, size / 2);
+            wearFull = new WearMasks(getLayerPixels(torn, size, size),
+                    getLayerPixels(blasted1, size, size), getLayerPixels(blasted2, size, size));
+            wearHalf = new WearMasks(getLayerPixels(torn, size, size / 2),
+                    getLayerPixels(blasted1, size, size / 2), getLayerPixels(blasted2, size, size / 2));
+        }
+    }
+
+    /**
+     * Loads the constant compositing images.
+     *
+     * @throws IOException if a compositing image could not be read
+     */
+    public FlagRenderer() throws IOException {
+        compositingNullFlag = getResourceImage("/compositing/noFlag.png");
+        compositingStains = getResourceImage("/compositing/stains.png");
+        compositingTorn = getResourceImage("/compositing/torn.png");
+        compositingBlasted1 = getResourceImage("/compositing/blasted1.png");
+        compositingBlasted2 = getResourceImage("/compositing/blasted2.png");
+        textureLayers = new Layers(TEXTURE_SIZE, FLAGPOLE_CONNECTION_WIDTH, compositingNullFlag,
+                compositingStains, compositingTorn, compositingBlasted1, compositingBlasted2);
+        previewLayers = new Layers(PREVIEW_SIZE,
+                Math.max(1, Math.round(FLAGPOLE_CONNECTION_WIDTH * (float) PREVIEW_SIZE / TEXTURE_SIZE)),
+                shrink(compositingNullFlag, PREVIEW_SIZE, PREVIEW_SIZE),
+                shrink(compositingStains, PREVIEW_SIZE, PREVIEW_SIZE),
+                shrink(compositingTorn, PREVIEW_SIZE, PREVIEW_SIZE),
+                shrink(compositingBlasted1, PREVIEW_SIZE, PREVIEW_SIZE),
+                shrink(compositingBlasted2, PREVIEW_SIZE, PREVIEW_SIZE));
+    }
+
+    /**
+     * Scales a compositing image to the given size the same way
+     * <code>drawImage</code> does, and returns its pixels.
+     */
+    private static int[] getLayerPixels(BufferedImage image, int width, int height) {
+        BufferedImage layer = new BufferedImage(width, height, DEFAULT_IMAGE_TYPE);
+        Graphics2D g = layer.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return ((DataBufferInt) layer.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Shrinks an image with area averaging, slow but only done once per image.
+     */
+    private static BufferedImage shrink(BufferedImage image, int width, int height) {
+        BufferedImage shrunk = new BufferedImage(width, height, DEFAULT_IMAGE_TYPE);
+        Graphics2D g = shrunk.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(new ImageIcon(image.getScaledInstance(width, height, Image.SCALE_AREA_AVERAGING)).getImage(),
+                0, 0, null);
+        g.dispose();
+        return shrunk;
+    }
+
+    /**
+     * Shrinks an input flag image so it is no larger than needed for
+     * previews. Done once when an image is loaded, so previews never have to
+     * scale the full size image.
+     *
+     * @param flagImage input flag image, or null
+     * @return shrunk image, the image itself if it is already small enough,
+     * or null if the input was null
+     */
+    public static BufferedImage shrinkForPreview(BufferedImage flagImage) {
+        if (flagImage == null
+                || (flagImage.getWidth() <= PREVIEW_SIZE && flagImage.getHeight() <= PREVIEW_SIZE)) {
+            return flagImage;
+        }
+        return shrink(flagImage, Math.min(flagImage.getWidth(), PREVIEW_SIZE),
+                Math.min(flagImage.getHeight(), PREVIEW_SIZE));
+    }
+
+    /**
+     * Reads an input flag image, in any format ImageIO reads. DDS files are
+     * mapped and decoded in one go rather than streamed through ImageIO.
+     *
+     * @param file image file
+     * @return the image
+     * @throws IOException if the file could not be read or its format is not
+     * supported
+     */
+    public static BufferedImage readFlagImage(File file) throws IOException {
+        if (file.getName().toLowerCase().endsWith(".dds")) {
+            return DDSReader.read(file);
+        }
+        BufferedImage flagImage = ImageIO.read(file);
+        if (flagImage == null) {
+            throw new IOException("Unsupported image format");
+        }
+        return flagImage;
+    }
+
+    static BufferedImage getResourceImage(String resourcePath) throws IOException {
+        URL resource = FlagRenderer.class.getResource(resourcePath);
+        if (resource == null) {
+            throw new IOException("Missing resource " + resourcePath);
+        }
+        return convertBufferedImage(ImageIO.read(resource), DEFAULT_IMAGE_TYPE);
+    }
+
+    static BufferedImage convertBufferedImage(BufferedImage image, int imageType) {
+        BufferedImage returnedImage = new BufferedImage(image.getWidth(), image.getHeight(), imageType);
+        Graphics rGraphics = returnedImage.getGraphics();
+        rGraphics.drawImage(image, 0, 0, null);
+        rGraphics.dispose();
+        return returnedImage;
+    }
+
+    /**
+     * Settings that draw the same texture as the given ones, with types that
+     * are drawn like another type replaced by it. Settings with equal drawn
+     * settings render identical textures.
+     *
+     * @param settings compositing options
+     * @return the settings, with <code>FLAG_SEPERATE</code> replaced by
+     * <code>FLAG_DUAL</code>
+     */
+    public static FlagSettings getDrawnSettings(FlagSettings settings) {
+        return settings.getType() == ReplacementType.FLAG_SEPERATE
+                ? settings.withType(ReplacementType.FLAG_DUAL) : settings;
+    }
+
+    /**
+     * Paints a new flag texture.
+     *
+     * @param flagImage input flag image, or null to use the no flag image
+     * @param settings compositing options
+     * @return newly allocated texture
+     */
+    public BufferedImage render(BufferedImage flagImage, FlagSettings settings) {
+        BufferedImage textureOutput = new BufferedImage(TEXTURE_SIZE, TEXTURE_SIZE, DEFAULT_IMAGE_TYPE);
+        render(flagImage, settings, textureOutput);
+        return textureOutput;
+    }
+
+    /**
+     * Paints the flag texture into an existing 1024x1024 image.
+     * <br><br>
+     * The input image is scaled once per layout and cached, everything else is
+     * composited in a single pass by {@link FlagCompositor}.
+     *
+     * @param flagImage input flag image, or null to use the no flag image
+     * @param settings compositing options
+     * @param textureOutput image to draw into
+     */
+    public void render(BufferedImage flagImage, FlagSettings settings, BufferedImage textureOutput) {
+        if (!isCompositable(textureOutput, TEXTURE_SIZE) || settings.getFlagpoleConnectionColor().getAlpha() != 255) {
+            renderWithGraphics2D(flagImage, settings, textureOutput);
+            return;
+        }
+        composite(flagImage, settings, textureOutput, textureLayers);
+    }
+
+    /**
+     * Paints a 128x128 preview of the flag texture.
+     * <br><br>
+     * The whole pipeline runs at preview resolution from pre-shrunk layers,
+     * so it is much cheaper than rendering and scaling down the full texture.
+     * The input should be shrunk with {@link #shrinkForPreview} beforehand.
+     * The flagpole connection is always drawn opaque.
+     *
+     * @param flagImage input flag image, or null to use the no flag image
+     * @param settings compositing options
+     * @return newly allocated preview
+     */
+    public BufferedImage renderPreview(BufferedImage flagImage, FlagSettings settings) {
+        BufferedImage preview = new BufferedImage(PREVIEW_SIZE, PREVIEW_SIZE, DEFAULT_IMAGE_TYPE);
+        composite(flagImage, settings, preview, previewLayers);
+        return preview;
+    }
+
+    private void composite(BufferedImage flagImage, FlagSettings settings, BufferedImage output, Layers layers) {
+        int size = layers.size;
+        int half = size / 2;
+        int flagpoleWidth = settings.isFlagpoleConnection() ? layers.flagpoleWidth : 0;
+        boolean single = settings.getType() == ReplacementType.FLAG_SINGLE;
+        boolean dual = settings.getType() == ReplacementType.FLAG_DUAL || settings.getType() == ReplacementType.FLAG_SEPERATE;
+        //previews don't have to match the export, so they may look nicer
+        Object interpolation = layers == textureLayers
+                ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+                : RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+        int[] pixels = ((DataBufferInt) output.getRaster().getDataBuffer()).getData();
+        //columns left of the flag are covered by the flagpole connection later
+        int flagWidth = size - flagpoleWidth;
+        if (flagImage == null) {
+            place(fittedImageCache.getFitted(layers.nullFlag, size, size, false, interpolation),
+                    pixels, size, 0, 0, size, size);
+        } else if (single) {
+            place(fittedImageCache.getFitted(flagImage, flagWidth, size, false, interpolation),
+                    pixels, size, flagpoleWidth, 0, flagWidth, size);
+        } else if (dual) {
+            place(fittedImageCache.getFitted(flagImage, flagWidth, half, false, interpolation),
+                    pixels, size, flagpoleWidth, 0, flagWidth, half);
+            place(fittedImageCache.getFitted(flagImage, flagWidth, half, settings.isFlip(), interpolation),
+                    pixels, size, flagpoleWidth, half, flagWidth, half);
+        } else {
+            Arrays.fill(pixels, 0xFF000000);
+        }
+
+        int[] stains = null;
+        WearMasks.Combination wear = null;
+        if (single || dual) {
+            if (settings.isStained()) {
+                stains = single ? layers.stainsFull : layers.stainsHalf;
+            }
+            wear = (single ? layers.wearFull : layers.wearHalf).get(
+                    (settings.isTorn() ? WearMasks.TORN : 0)
+                    | (settings.isBlasted1() ? WearMasks.BLASTED1 : 0)
+                    | (settings.isBlasted2() ? WearMasks.BLASTED2 : 0));
+        }
+        FlagCompositor.composite(pixels, pixels, size, size,
+                flagpoleWidth, settings.getFlagpoleConnectionColor().getRGB() | 0xFF000000,
+                stains, wear, single ? size : half);
+    }
+
+    /**
+     * Copies fitted pixels into a rectangle of a texture.
+     */
+    private static void place(int[] fitted, int[] pixels, int size, int x, int y, int width, int height) {
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(fitted, row * width, pixels, (y + row) * size + x, width);
+        }
+    }
+
+    /**
+     * Whether the image is a plain <code>TYPE_INT_ARGB</code> image of the
+     * given size whose pixels can be composited directly.
+     */
+    private static boolean isCompositable(BufferedImage image, int size) {
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB
+                || image.getWidth() != size || image.getHeight() != size
+                || !(image.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+            return false;
+        }
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) image.getSampleModel();
+        return sampleModel.getScanlineStride() == size
+                && image.getRaster().getDataBuffer().getOffset() == 0
+                && image.getRaster().getSampleModelTranslateX() == 0
+                && image.getRaster().getSampleModelTranslateY() == 0;
+    }
+
+    /**
+     * Paints the flag texture by drawing every layer with Graphics2D.
+     * <br><br>
+     * Used for images that can't be composited directly, and as the reference
+     * the output of {@link FlagCompositor} is checked against.
+     *
+     * @param flagImage input flag image, or null to use the no flag image
+     * @param settings compositing options
+     * @param textureOutput image to draw into
+     */
+    void renderWithGraphics2D(BufferedImage flagImage, FlagSettings settings, BufferedImage textureOutput) {
+        Graphics2D g = textureOutput.createGraphics();
+        boolean flagpole = settings.isFlagpoleConnection();
+        g.setComposite(AlphaComposite.SrcOver);
+        g.clearRect(0, 0, 1024, 1024);
+        if (flagImage == null) {
+            g.drawImage(compositingNullFlag, 0, 0, 1024, 1024, null);
+        }
+        if (flagpole) {
+            g.setColor(settings.getFlagpoleConnectionColor());
+            g.fillRect(0, 0, FLAGPOLE_CONNECTION_WIDTH, 1024);
+        }
+        switch (settings.getType()) {
+            case FLAG_SINGLE:
+                if (flagImage != null) {
+                    g.drawImage(flagImage,
+                            flagpole ? 13 : 0, 0,
+                            flagpole ? 1011 : 1024, 1024,
+                            null);
+                }
+                if (settings.isStained()) {
+                    g.setComposite(BlendComposite.Multiply);
+                    g.drawImage(compositingStains, 0, 0, 1024, 1024, null);
+                }
+                g.setComposite(AlphaComposite.DstIn);
+                if (settings.isTorn()) {
+                    g.drawImage(compositingTorn, 0, 0, 1024, 1024, null);
+                }
+                if (settings.isBlasted1()) {
+                    g.drawImage(compositingBlasted1, 0, 0, 1024, 1024, null);
+                }
+                if (settings.isBlasted2()) {
+                    g.drawImage(compositingBlasted2, 0, 0, 1024, 1024, null);
+                }
+                break;
+            case FLAG_DUAL:
+            case FLAG_SEPERATE:
+                if (flagImage != null) {
+                    g.drawImage(flagImage,
+                            flagpole ? 13 : 0, 0,
+                            flagpole ? 1011 : 1024, 512,
+                            null);
+                    if (!settings.isFlip()) //don't flip
+                    {
+                        g.drawImage(flagImage,
+                                flagpole ? 13 : 0, 512,
+                                flagpole ? 1011 : 1024, 512,
+                                null);
+                    } else //do flip
+                    {
+                        g.drawImage(flagImage, 1024, 512,
+                                flagpole ? -1011 : -1024, 512,
+                                null);
+                    }
+                }
+                if (settings.isStained()) {
+                    g.setComposite(BlendComposite.Multiply);
+                    g.drawImage(compositingStains, 0, 0, 1024, 512, null);
+                    g.drawImage(compositingStains, 0, 512, 1024, 512, null);
+                }
+                g.setComposite(AlphaComposite.DstIn);
+                if (settings.isTorn()) {
+                    g.drawImage(compositingTorn, 0, 0, 1024, 512, null);
+                    g.drawImage(compositingTorn, 0, 512, 1024, 512, null);
+                }
+                if (settings.isBlasted1()) {
+                    g.drawImage(compositingBlasted1, 0, 0, 1024, 512, null);
+                    g.drawImage(compositingBlasted1, 0, 512, 1024, 512, null);
+                }
+                if (settings.isBlasted2()) {
+                    g.drawImage(compositingBlasted2, 0, 0, 1024, 512, null);
+                    g.drawImage(compositingBlasted2, 0, 512, 1024, 512, null);
+                }
+                break;
+        }
+        g.dispose();
+    }
+}
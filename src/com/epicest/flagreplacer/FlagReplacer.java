@@ -16,32 +16,31 @@
  */
 package com.epicest.flagreplacer;
 
-import ddsutil.DDSUtil;
-import java.awt.AlphaComposite;
+import com.epicest.dds.CompressionQuality;
+import com.epicest.dds.DXTFormat;
+import com.epicest.dds.IncrementalDDSWriter;
 import java.awt.Color;
 import java.awt.Desktop;
-import java.awt.Graphics;
-import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.SwingWorker;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
-import jogl.DDSImage;
-import org.jdesktop.swingx.graphics.BlendComposite;
 
 /**
  *
@@ -51,10 +50,18 @@ public class FlagReplacer extends javax.swing.JFrame {
 
     /**
      * Initializes initial look and feel and starts the application.
+     * <br><br>
+     * Passing <code>--batch</code> as the first argument runs
+     * {@link FlagBatchExporter} instead of the UI.
      *
      * @param args the command line arguments
      */
     public static void main(String args[]) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            //run headless without creating any windows
+            FlagBatchExporter.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         try {
             //Set operating system look and feel.
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -115,42 +122,60 @@ public class FlagReplacer extends javax.swing.JFrame {
      * Current UV image mode
      */
     private ReplacementType currentType = ReplacementType.FLAG_SINGLE;
-    private Color flagpoleConnectionColor = new Color(66, 61, 59);
-    // Constant compositing images.
-    /**
-     * No flag found image for compositing
-     */
-    private BufferedImage compositingNullFlag;
+    private Color flagpoleConnectionColor = FlagSettings.DEFAULT_FLAGPOLE_CONNECTION_COLOR;
     /**
-     * Stains image for compositing
+     * Composites the flag texture from the input image and current options
      */
-    private BufferedImage compositingStains;
+    private FlagRenderer flagRenderer;
     /**
-     * Torn alpha for compositing
+     * Writes the exported textures, only compressing what changed when the
+     * same texture is saved again
      */
-    private BufferedImage compositingTorn;
+    private final IncrementalDDSWriter textureWriter = new IncrementalDDSWriter();
     /**
-     * Blasted variant 1 alpha for compositing
+     * Finished textures kept across sessions
      */
-    private BufferedImage compositingBlasted1;
+    private final TextureCache textureCache = TextureCache.getDefault();
     /**
-     * Blasted variant 2 alpha for compositing
+     * Whether an export is running in the background
      */
-    private BufferedImage compositingBlasted2;
+    private boolean saving;
     // Non-constant compositing images.
     /**
      * Input flag image, used as the base for new flags
      */
     private BufferedImage flagImageInput;
     /**
-     * Output flag image, used for drawing and saving
+     * Hash of the input flag image file, part of the texture cache keys
      */
-    private final BufferedImage textureOutput;
+    private byte[] flagImageInputHash;
+    /**
+     * Input flag image shrunk for previews
+     */
+    private BufferedImage flagImagePreviewInput;
     /**
      * Output flag image preview icon, used for previewing the flag image in the
      * UI
      */
     private ImageIcon texturePreviewIcon;
+    /**
+     * Renders previews off the event dispatch thread
+     */
+    private final RenderScheduler<PreviewRequest, ImageIcon> previewScheduler;
+
+    /**
+     * Snapshot of everything a preview render depends on
+     */
+    private static final class PreviewRequest {
+
+        final BufferedImage flagImage;
+        final FlagSettings settings;
+
+        PreviewRequest(BufferedImage flagImage, FlagSettings settings) {
+            this.flagImage = flagImage;
+            this.settings = settings;
+        }
+    }
 
     /**
      * Loads initial images and data, and then initializes the UI
@@ -163,11 +188,7 @@ public class FlagReplacer extends javax.swing.JFrame {
             noFlagIcon = new ImageIcon(ImageIO.read(getClass().getResource("/icons/noFlag.png"))
                     .getScaledInstance(128, 128, Image.SCALE_SMOOTH));
             //load compositing images
-            compositingNullFlag = getResourceImage("/compositing/noFlag.png");
-            compositingStains = getResourceImage("/compositing/stains.png");
-            compositingTorn = getResourceImage("/compositing/torn.png");
-            compositingBlasted1 = getResourceImage("/compositing/blasted1.png");
-            compositingBlasted2 = getResourceImage("/compositing/blasted2.png");
+            flagRenderer = new FlagRenderer();
         } catch (IOException ioe) {
             // let the user know if failed
             JOptionPane.showMessageDialog(null,
@@ -177,30 +198,16 @@ public class FlagReplacer extends javax.swing.JFrame {
             Logger.getLogger(FlagReplacer.class.getName()).log(Level.SEVERE, "IOException occured while loading initial images.", ioe);
             System.exit(1);
         }
-        textureOutput = new BufferedImage(1024, 1024, DEFAULT_IMAGE_TYPE);
         flagPresetListModel = new FlagPresetListModel();
+        previewScheduler = new RenderScheduler<>(this::renderPreview, icon -> {
+            texturePreviewIcon = icon;
+            texturePreviewLabel.setIcon(texturePreviewIcon);
+        });
         initComponents();
         setMinimumSize(getSize());
         repaintCustomFlag();
     }
 
-    /**
-     * Standardized image type to make working with images easier.
-     */
-    private static final int DEFAULT_IMAGE_TYPE = BufferedImage.TYPE_INT_ARGB;
-
-    private static BufferedImage getResourceImage(String resourcePath) throws IOException {
-        return convertBufferedImage(ImageIO.read(FlagReplacer.class.getResource(resourcePath)), DEFAULT_IMAGE_TYPE);
-    }
-
-    private static BufferedImage convertBufferedImage(BufferedImage image, int imageType) {
-        BufferedImage returnedImage = new BufferedImage(image.getWidth(), image.getHeight(), imageType);
-        Graphics rGraphics = returnedImage.getGraphics();
-        rGraphics.drawImage(image, 0, 0, null);
-        return returnedImage;
-    }
-
-    //TODO Rewrite method
     /**
      * Generates and saves the texture and material files used in this program.
      */
@@ -208,72 +215,132 @@ public class FlagReplacer extends javax.swing.JFrame {
         int returnVal = saveFileChooser.showSaveDialog(this);
         if (returnVal == JFileChooser.APPROVE_OPTION) {
             File saveDirectory = saveFileChooser.getSelectedFile();
-            File flexibleFile;
-            //Path Seperator
-            char sep = File.separatorChar;
-            String materialPath = materialTargetChooserList.getSelectedValue().materialPath;
-            materialPath = materialPath.replace('\\', sep);
-            String materialIndex = String.format("%02d", materialTargetChooserList.getSelectedValue().index);
-            try {
-                //Create readme
-                Files.copy(getClass().getResourceAsStream("/export/readme.txt"), saveDirectory.toPath().resolve("readme.txt"), StandardCopyOption.REPLACE_EXISTING);
-                //Create materials folder, if it doesn't already exist
-                flexibleFile = new File(saveDirectory.getAbsolutePath() + sep + materialPath.substring(0, materialPath.lastIndexOf(sep)));
-                if (!flexibleFile.exists()) {
-                    if (!flexibleFile.mkdirs()) {
-                        // an issue occured
-                        throw new IOException("Could not create material directories");
-                    }
-                }
-                //Create material file
-                flexibleFile = new File(saveDirectory.getAbsolutePath() + sep + materialPath);
-                byte[] materialFileData;
-                InputStream materialExportStream;
-                if (currentType.equals(ReplacementType.FLAG_SINGLE)) {
-                    materialExportStream = getClass().getResourceAsStream("/export/material-single.bgsm");
+            FlagPreset preset = materialTargetChooserList.getSelectedValue();
+            FlagSettings settings = getCurrentSettings();
+            BufferedImage flagImage = flagImageInput;
+            byte[] flagImageHash = flagImageInputHash;
+            CompressionQuality quality = qualityComboBox.getItemAt(qualityComboBox.getSelectedIndex());
+            DXTFormat format = automaticFormatCheckBox.isSelected() ? null : DXTFormat.DXT5;
+            runExport(saveDirectory, () -> {
+                ExportReport report = new ExportReport();
+                int cacheHits = textureCache.getHits();
+                FlagExporter.writeReadme(saveDirectory.toPath());
+                FlagExporter.writeMaterial(saveDirectory.toPath(), preset);
+                FlagExporter.writeTexture(saveDirectory.toPath(), preset, () -> flagRenderer.render(flagImage, settings),
+                        quality, format, textureWriter, textureCache,
+                        TextureCache.getKey(flagImageHash, FlagRenderer.getDrawnSettings(settings),
+                                FlagRenderer.TEXTURE_SIZE, format, quality),
+                        report);
+                if (textureCache.getHits() > cacheHits) {
+                    Logger.getLogger(FlagReplacer.class.getName()).log(Level.INFO, "Copied texture from the cache");
                 } else {
-                    materialExportStream = getClass().getResourceAsStream("/export/material-dual.bgsm");
+                    Logger.getLogger(FlagReplacer.class.getName()).log(Level.INFO, "Compressed {0} of {1} texture blocks",
+                            new Object[]{textureWriter.getLastCompressedBlocks(), textureWriter.getLastBlocks()});
                 }
-                materialFileData = new byte[materialExportStream.available()];
-                materialExportStream.read(materialFileData);
-                materialExportStream.close();
-                //replace materialfile bytes 0x59-0x5A with bytes from materialIndex
-                materialFileData[0x59] = (byte) materialIndex.charAt(0);
-                materialFileData[0x5A] = (byte) materialIndex.charAt(1);
-                Files.write(flexibleFile.toPath(), materialFileData, StandardOpenOption.CREATE);
-                //Create texture folder
-                String texturePath = "textures" + sep + "egfr" + sep + "SetDressing" + sep + "texture-" + materialIndex + "-d.dds";
-                flexibleFile = new File(saveDirectory.getAbsolutePath() + sep + texturePath.substring(0, texturePath.lastIndexOf(sep)));
-                if (!flexibleFile.exists()) {
-                    if (!flexibleFile.mkdirs()) {
-                        // an issue occured
-                        throw new IOException("Could not create texture directories");
-                    }
-                }
-                //Create texture
-                flexibleFile = new File(saveDirectory.getAbsolutePath() + sep + texturePath);
-                flexibleFile.createNewFile();
-                DDSUtil.write(flexibleFile, convertBufferedImage(textureOutput, BufferedImage.TYPE_4BYTE_ABGR), DDSImage.D3DFMT_DXT5, true);
-                //Open up an exploered window at the saved folder's location. or alert the user that the file is saved
-                if (fileOpenCheckBox.isSelected()) {
-                    Desktop.getDesktop().open(saveDirectory);
-                } else {
-                    JOptionPane.showMessageDialog(this,
-                            "Saved textures and materials to \"" + saveDirectory.getAbsolutePath() + "\".",
-                            "Fallout 76 Flag Replacer",
-                            JOptionPane.INFORMATION_MESSAGE);
-                    Logger.getLogger(FlagReplacer.class.getName()).log(Level.INFO, "Saved textures and materials to \"" + saveDirectory.getAbsolutePath() + "\".");
+                return report;
+            });
+        }
+    }
+
+    /**
+     * Saves a pack replacing every flag material with the current flag. Each
+     * distinct texture is composited and compressed once and shared by all
+     * materials using it.
+     */
+    private void saveAllFlagFiles() {
+        int returnVal = saveFileChooser.showSaveDialog(this);
+        if (returnVal == JFileChooser.APPROVE_OPTION) {
+            File saveDirectory = saveFileChooser.getSelectedFile();
+            List<FlagPreset> presets = new ArrayList<>();
+            for (int i = 0; i < flagPresetListModel.getSize(); i++) {
+                presets.add(flagPresetListModel.getElementAt(i));
+            }
+            FlagSettings settings = getCurrentSettings();
+            BufferedImage flagImage = flagImageInput;
+            byte[] flagImageHash = flagImageInputHash;
+            CompressionQuality quality = qualityComboBox.getItemAt(qualityComboBox.getSelectedIndex());
+            DXTFormat format = automaticFormatCheckBox.isSelected() ? null : DXTFormat.DXT5;
+            runExport(saveDirectory, () -> {
+                ExportReport report = new ExportReport();
+                //the pack is written past the texture writer, so the chains it remembers may be overwritten
+                textureWriter.clear();
+                int textures = FlagExporter.exportAll(saveDirectory.toPath(), presets, flagRenderer, flagImage,
+                        flagImageHash, settings, quality, format, textureCache, report, ForkJoinPool.commonPool());
+                Logger.getLogger(FlagReplacer.class.getName()).log(Level.INFO, "Wrote {0} textures for {1} materials",
+                        new Object[]{textures, presets.size()});
+                return report;
+            });
+        }
+    }
+
+    /**
+     * Runs an export on a background thread with the save buttons disabled,
+     * and reports how it went on the event dispatch thread once it is done.
+     *
+     * @param saveDirectory folder the export writes to
+     * @param export writes the files from a snapshot of the UI, called on the
+     * background thread
+     */
+    private void runExport(File saveDirectory, Callable<ExportReport> export) {
+        setSaving(true);
+        new SwingWorker<ExportReport, Void>() {
+            @Override
+            protected ExportReport doInBackground() throws Exception {
+                return export.call();
+            }
+
+            @Override
+            protected void done() {
+                setSaving(false);
+                try {
+                    showSaved(saveDirectory, get());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ee) {
+                    showSaveError(ee.getCause());
+                } catch (IOException ioe) {
+                    showSaveError(ioe);
                 }
-            } catch (IOException ioe) {
-                JOptionPane.showMessageDialog(this,
-                        "Error while saving, please alert the developer.\n\n" + ioe.getLocalizedMessage(),
-                        "Fallout 76 Flag Replacer",
-                        JOptionPane.ERROR_MESSAGE);
-                Logger.getLogger(FlagReplacer.class.getName()).log(Level.SEVERE, "IOException occured while saving.", ioe);
             }
+        }.execute();
+    }
+
+    /**
+     * Disables the save buttons while an export is running, so the same files
+     * aren't written twice at once.
+     */
+    private void setSaving(boolean saving) {
+        this.saving = saving;
+        saveButton.setEnabled(!saving && materialTargetChooserList.getSelectedValue() != null);
+        saveAllButton.setEnabled(!saving);
+    }
+
+    /**
+     * Opens the saved folder, or tells the user where the files were saved.
+     */
+    private void showSaved(File saveDirectory, ExportReport report) throws IOException {
+        Logger.getLogger(FlagReplacer.class.getName()).log(Level.INFO, "Texture formats: {0}", report.getSummary());
+        //Open up an exploered window at the saved folder's location. or alert the user that the file is saved
+        if (fileOpenCheckBox.isSelected()) {
+            Desktop.getDesktop().open(saveDirectory);
+        } else {
+            JOptionPane.showMessageDialog(this,
+                    "Saved textures and materials to \"" + saveDirectory.getAbsolutePath() + "\".\n\n"
+                    + report.getSummary(),
+                    "Fallout 76 Flag Replacer",
+                    JOptionPane.INFORMATION_MESSAGE);
+            Logger.getLogger(FlagReplacer.class.getName()).log(Level.INFO, "Saved textures and materials to \"" + saveDirectory.getAbsolutePath() + "\".");
         }
     }
 
+    private void showSaveError(Throwable e) {
+        JOptionPane.showMessageDialog(this,
+                "Error while saving, please alert the developer.\n\n" + e.getLocalizedMessage(),
+                "Fallout 76 Flag Replacer",
+                JOptionPane.ERROR_MESSAGE);
+        Logger.getLogger(FlagReplacer.class.getName()).log(Level.SEVERE, "Exception occured while saving.", e);
+    }
+
     /**
      * Opens a file chooser and loads the selected file into the flag's input.
      */
@@ -283,9 +350,13 @@ public class FlagReplacer extends javax.swing.JFrame {
             File file = textureFlagImageFileChooser.getSelectedFile();
             textureFlagImageTextbox.setText(file.getAbsolutePath());
             try {
-                flagImageInput = ImageIO.read(file);
+                flagImageInputHash = TextureCache.hash(file);
+                flagImageInput = FlagRenderer.readFlagImage(file);
+                flagImagePreviewInput = FlagRenderer.shrinkForPreview(flagImageInput);
             } catch (IOException ioe) {
                 flagImageInput = null;
+                flagImageInputHash = null;
+                flagImagePreviewInput = null;
                 JOptionPane.showMessageDialog(this,
                         "Error while loading flag image file, please alert the developer.\n\n" + ioe.getLocalizedMessage(),
                         "Fallout 76 Flag Replacer",
@@ -303,7 +374,7 @@ public class FlagReplacer extends javax.swing.JFrame {
         FlagPreset currentPreset = materialTargetChooserList.getSelectedValue();
         if (currentPreset != null) {
             materialPreviewLabel.setIcon(currentPreset.previewIcon);
-            saveButton.setEnabled(true);
+            saveButton.setEnabled(!saving);
             currentType = currentPreset.type;
             switch (currentType) {
                 case FLAG_SINGLE:
@@ -321,86 +392,40 @@ public class FlagReplacer extends javax.swing.JFrame {
     }
 
     /**
-     * Paints the flag texture.
+     * Takes a snapshot of the options currently selected in the UI.
+     *
+     * @return current compositing options
+     */
+    private FlagSettings getCurrentSettings() {
+        return new FlagSettings(currentType,
+                textureStainedCheckBox.isSelected(),
+                textureTornCheckBox.isSelected(),
+                textureBlasted01CheckBox.isSelected(),
+                textureBlasted02CheckBox.isSelected(),
+                textureFlagpoleConnectionCheckBox.isSelected(),
+                textureFlipCheckBox.isSelected(),
+                flagpoleConnectionColor);
+    }
+
+    /**
+     * Schedules a repaint of the flag texture preview with the current options.
+     * <br><br>
+     * Returns immediately, the preview is rendered in the background and
+     * updated once the newest options have been rendered.
      */
     public void repaintCustomFlag() {
-        Graphics2D g = (Graphics2D) textureOutput.getGraphics();
-        g.setComposite(AlphaComposite.SrcOver);
-        g.clearRect(0, 0, 1024, 1024);
-        if (flagImageInput == null) {
-            g.drawImage(compositingNullFlag, 0, 0, 1024, 1024, null);
-        }
-        if (textureFlagpoleConnectionCheckBox.isSelected()) {
-            g.setColor(flagpoleConnectionColor);
-            g.fillRect(0, 0, 13, 1024);
-        }
-        switch (currentType) {
-            case FLAG_SINGLE:
-                if (flagImageInput != null) {
-                    g.drawImage(flagImageInput,
-                            textureFlagpoleConnectionCheckBox.isSelected() ? 13 : 0, 0,
-                            textureFlagpoleConnectionCheckBox.isSelected() ? 1011 : 1024, 1024,
-                            null);
-                }
-                if (textureStainedCheckBox.isSelected()) {
-                    g.setComposite(BlendComposite.Multiply);
-                    g.drawImage(compositingStains, 0, 0, 1024, 1024, null);
-                }
-                g.setComposite(AlphaComposite.DstIn);
-                if (textureTornCheckBox.isSelected()) {
-                    g.drawImage(compositingTorn, 0, 0, 1024, 1024, null);
-                }
-                if (textureBlasted01CheckBox.isSelected()) {
-                    g.drawImage(compositingBlasted1, 0, 0, 1024, 1024, null);
-                }
-                if (textureBlasted02CheckBox.isSelected()) {
-                    g.drawImage(compositingBlasted2, 0, 0, 1024, 1024, null);
-                }
-                break;
-            case FLAG_DUAL:
-            case FLAG_SEPERATE:
-                if (flagImageInput != null) {
-                    g.drawImage(flagImageInput,
-                            textureFlagpoleConnectionCheckBox.isSelected() ? 13 : 0, 0,
-                            textureFlagpoleConnectionCheckBox.isSelected() ? 1011 : 1024, 512,
-                            null);
-                    if (!textureFlipCheckBox.isSelected()) //don't flip
-                    {
-                        g.drawImage(flagImageInput,
-                                textureFlagpoleConnectionCheckBox.isSelected() ? 13 : 0, 512,
-                                textureFlagpoleConnectionCheckBox.isSelected() ? 1011 : 1024, 512,
-                                null);
-                    } else //do flip
-                    {
-                        g.drawImage(flagImageInput, 1024, 512,
-                                textureFlagpoleConnectionCheckBox.isSelected() ? -1011 : -1024, 512,
-                                null);
-                    }
-                }
-                if (textureStainedCheckBox.isSelected()) {
-                    g.setComposite(BlendComposite.Multiply);
-                    g.drawImage(compositingStains, 0, 0, 1024, 512, null);
-                    g.drawImage(compositingStains, 0, 512, 1024, 512, null);
-                }
-                g.setComposite(AlphaComposite.DstIn);
-                if (textureTornCheckBox.isSelected()) {
-                    g.drawImage(compositingTorn, 0, 0, 1024, 512, null);
-                    g.drawImage(compositingTorn, 0, 512, 1024, 512, null);
-                }
-                if (textureBlasted01CheckBox.isSelected()) {
-                    g.drawImage(compositingBlasted1, 0, 0, 1024, 512, null);
-                    g.drawImage(compositingBlasted1, 0, 512, 1024, 512, null);
-                }
-                if (textureBlasted02CheckBox.isSelected()) {
-                    g.drawImage(compositingBlasted2, 0, 0, 1024, 512, null);
-                    g.drawImage(compositingBlasted2, 0, 512, 1024, 512, null);
-                }
-                break;
-        }
+        previewScheduler.submit(new PreviewRequest(flagImagePreviewInput, getCurrentSettings()));
+    }
 
-        texturePreviewIcon = new ImageIcon(textureOutput
-                .getScaledInstance(128, 128, Image.SCALE_SMOOTH));
-        texturePreviewLabel.setIcon(texturePreviewIcon);
+    /**
+     * Paints the flag texture preview at preview resolution, called on the
+     * render worker thread.
+     *
+     * @param request snapshot to render
+     * @return preview icon
+     */
+    private ImageIcon renderPreview(PreviewRequest request) {
+        return new ImageIcon(flagRenderer.renderPreview(request.flagImage, request.settings));
     }
 
     /**
@@ -439,7 +464,11 @@ public class FlagReplacer extends javax.swing.JFrame {
         textureFlipCheckBox = new javax.swing.JCheckBox();
         javax.swing.JButton aboutButton = new javax.swing.JButton();
         saveButton = new javax.swing.JButton();
+        saveAllButton = new javax.swing.JButton();
         fileOpenCheckBox = new javax.swing.JCheckBox();
+        javax.swing.JLabel qualityLabel = new javax.swing.JLabel();
+        qualityComboBox = new javax.swing.JComboBox<>();
+        automaticFormatCheckBox = new javax.swing.JCheckBox();
 
         textureFlagImageFileChooser.setAcceptAllFileFilterUsed(false);
         textureFlagImageFileChooser.setDialogTitle("Open");
@@ -759,9 +788,25 @@ public class FlagReplacer extends javax.swing.JFrame {
             }
         });
 
+        saveAllButton.setText("Save All Flags");
+        saveAllButton.setToolTipText("Replaces every flag material with this flag, sharing one texture per flag type.");
+        saveAllButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                saveAllButtonActionPerformed(evt);
+            }
+        });
+
         fileOpenCheckBox.setSelected(true);
         fileOpenCheckBox.setText("Open saved folder in explorer.");
 
+        qualityLabel.setText("Texture Quality:");
+
+        qualityComboBox.setModel(new javax.swing.DefaultComboBoxModel<>(CompressionQuality.values()));
+        qualityComboBox.setSelectedItem(CompressionQuality.DEFAULT);
+
+        automaticFormatCheckBox.setText("Save as DXT1 when possible.");
+        automaticFormatCheckBox.setToolTipText("Halves the texture size when the flag has no partially transparent pixels.");
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(getContentPane());
         getContentPane().setLayout(layout);
         layout.setHorizontalGroup(
@@ -773,9 +818,17 @@ public class FlagReplacer extends javax.swing.JFrame {
                     .addComponent(materialPanel, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                     .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, layout.createSequentialGroup()
                         .addComponent(fileOpenCheckBox)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(automaticFormatCheckBox)
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                        .addComponent(qualityLabel)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(qualityComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                         .addComponent(aboutButton)
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(saveAllButton)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                         .addComponent(saveButton)))
                 .addContainerGap())
         );
@@ -789,8 +842,12 @@ public class FlagReplacer extends javax.swing.JFrame {
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(saveButton)
+                    .addComponent(saveAllButton)
                     .addComponent(aboutButton)
-                    .addComponent(fileOpenCheckBox))
+                    .addComponent(fileOpenCheckBox)
+                    .addComponent(automaticFormatCheckBox)
+                    .addComponent(qualityLabel)
+                    .addComponent(qualityComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
                 .addContainerGap())
         );
 
@@ -814,6 +871,10 @@ public class FlagReplacer extends javax.swing.JFrame {
         saveFlagFiles();
     }//GEN-LAST:event_saveButtonActionPerformed
 
+    private void saveAllButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_saveAllButtonActionPerformed
+        saveAllFlagFiles();
+    }//GEN-LAST:event_saveAllButtonActionPerformed
+
     private void aboutButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_aboutButtonActionPerformed
         aboutDialog.setLocationRelativeTo(this);
         aboutDialog.setVisible(true);
@@ -850,9 +911,12 @@ public class FlagReplacer extends javax.swing.JFrame {
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JDialog aboutDialog;
+    private javax.swing.JCheckBox automaticFormatCheckBox;
     private javax.swing.JCheckBox fileOpenCheckBox;
     private javax.swing.JLabel materialPreviewLabel;
     private javax.swing.JList<FlagPreset> materialTargetChooserList;
+    private javax.swing.JComboBox<CompressionQuality> qualityComboBox;
+    private javax.swing.JButton saveAllButton;
     private javax.swing.JButton saveButton;
     private javax.swing.JFileChooser saveFileChooser;
     private javax.swing.JCheckBox textureBlasted01CheckBox;
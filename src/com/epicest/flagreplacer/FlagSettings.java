@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.flagreplacer;
+
+import com.epicest.flagreplacer.FlagReplacer.ReplacementType;
+import java.awt.Color;
+
+/**
+ * Immutable set of options used when compositing a flag texture.
+ *
+ * @author Jair
+ */
+public final class FlagSettings {
+
+    /**
+     * Default color of the flagpole connection column
+     */
+    public static final Color DEFAULT_FLAGPOLE_CONNECTION_COLOR = new Color(66, 61, 59);
+
+    private final ReplacementType type;
+    private final boolean stained;
+    private final boolean torn;
+    private final boolean blasted1;
+    private final boolean blasted2;
+    private final boolean flagpoleConnection;
+    private final boolean flip;
+    private final Color flagpoleConnectionColor;
+
+    /**
+     * Creates the settings used by the UI when the program starts.
+     */
+    public FlagSettings() {
+        this(ReplacementType.FLAG_SINGLE, true, false, false, false, true, false, DEFAULT_FLAGPOLE_CONNECTION_COLOR);
+    }
+
+    public FlagSettings(ReplacementType type, boolean stained, boolean torn, boolean blasted1, boolean blasted2,
+            boolean flagpoleConnection, boolean flip, Color flagpoleConnectionColor) {
+        if (type == null || flagpoleConnectionColor == null) {
+            throw new IllegalArgumentException("type and flagpoleConnectionColor can not be null");
+        }
+        this.type = type;
+        this.stained = stained;
+        this.torn = torn;
+        this.blasted1 = blasted1;
+        this.blasted2 = blasted2;
+        this.flagpoleConnection = flagpoleConnection;
+        this.flip = flip;
+        this.flagpoleConnectionColor = flagpoleConnectionColor;
+    }
+
+    public ReplacementType getType() {
+        return type;
+    }
+
+    public boolean isStained() {
+        return stained;
+    }
+
+    public boolean isTorn() {
+        return torn;
+    }
+
+    public boolean isBlasted1() {
+        return blasted1;
+    }
+
+    public boolean isBlasted2() {
+        return blasted2;
+    }
+
+    public boolean isFlagpoleConnection() {
+        return flagpoleConnection;
+    }
+
+    /**
+     * Whether the backside is mirrored, only used by dual flags
+     */
+    public boolean isFlip() {
+        return flip;
+    }
+
+    public Color getFlagpoleConnectionColor() {
+        return flagpoleConnectionColor;
+    }
+
+    /**
+     * Returns a copy of these settings using the given UV type.
+     *
+     * @param newType type to use
+     * @return settings with the type replaced
+     */
+    public FlagSettings withType(ReplacementType newType) {
+        return new FlagSettings(newType, stained, torn, blasted1, blasted2, flagpoleConnection, flip, flagpoleConnectionColor);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FlagSettings)) {
+            return false;
+        }
+        FlagSettings other = (FlagSettings) o;
+        return type == other.type
+                && stained == other.stained
+                && torn == other.torn
+                && blasted1 == other.blasted1
+                && blasted2 == other.blasted2
+                && flagpoleConnection == other.flagpoleConnection
+                && flip == other.flip
+                && flagpoleConnectionColor.equals(other.flagpoleConnectionColor);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = type.hashCode();
+        hash = 31 * hash + (stained ? 1 : 0);
+        hash = 31 * hash + (torn ? 1 : 0);
+        hash = 31 * hash + (blasted1 ? 1 : 0);
+        hash = 31 * hash + (blasted2 ? 1 : 0);
+        hash = 31 * hash + (flagpoleConnection ? 1 : 0);
+        hash = 31 * hash + (flip ? 1 : 0);
+        hash = 31 * hash + flagpoleConnectionColor.hashCode();
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return type + (stained ? ",stained" : "") + (torn ? ",torn" : "")
+                + (blasted1 ? ",blasted1" : "") + (blasted2 ? ",blasted2" : "")
+                + (flagpoleConnection ? ",flagpole" : "") + (flip ? ",flip" : "")
+                + ",#" + Integer.toHexString(flagpoleConnectionColor.getRGB() & 0xFFFFFF);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.flagreplacer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+
+/**
+ * Renders snapshots on a background thread, keeping only the newest one.
+ * <br><br>
+ * Snapshots submitted while a render is running replace each other, so after
+ * a burst of changes only the last one is rendered. Results are handed to the
+ * consumer on the event dispatch thread, and results of snapshots that have
+ * since been superseded are dropped. Submitting never blocks. The worker is a
+ * daemon thread, so it never keeps the application running.
+ *
+ * @author Jair
+ * @param <S> immutable snapshot type
+ * @param <R> render result type
+ */
+public class RenderScheduler<S, R> {
+
+    /**
+     * A submitted snapshot and its position in the submission order
+     */
+    private static final class Request<S> {
+
+        final S snapshot;
+        final long generation;
+
+        Request(S snapshot, long generation) {
+            this.snapshot = snapshot;
+            this.generation = generation;
+        }
+    }
+
+    private final Function<S, R> renderFunction;
+    private final Consumer<R> resultConsumer;
+    private final ExecutorService executor;
+    /**
+     * Newest snapshot that has not been picked up by the worker yet
+     */
+    private final AtomicReference<Request<S>> pending = new AtomicReference<>();
+    private final AtomicLong submitted = new AtomicLong();
+
+    /**
+     * @param renderFunction renders a snapshot, called on the worker thread
+     * @param resultConsumer receives results, called on the event dispatch
+     * thread
+     */
+    public RenderScheduler(Function<S, R> renderFunction, Consumer<R> resultConsumer) {
+        this.renderFunction = renderFunction;
+        this.resultConsumer = resultConsumer;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Flag render worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules a snapshot for rendering, superseding any earlier snapshot
+     * that has not been rendered yet.
+     *
+     * @param snapshot immutable snapshot to render
+     */
+    public void submit(S snapshot) {
+        Request<S> request = new Request<>(snapshot, submitted.incrementAndGet());
+        if (pending.getAndSet(request) == null) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        Request<S> request;
+        while ((request = pending.getAndSet(null)) != null) {
+            R result;
+            try {
+                result = renderFunction.apply(request.snapshot);
+            } catch (RuntimeException e) {
+                Logger.getLogger(RenderScheduler.class.getName()).log(Level.SEVERE, "Exception occured while rendering.", e);
+                continue;
+            }
+            if (pending.get() != null) {
+                //already superseded, don't bother the event dispatch thread
+                continue;
+            }
+            long generation = request.generation;
+            SwingUtilities.invokeLater(() -> {
+                if (generation == submitted.get()) {
+                    resultConsumer.accept(result);
+                }
+            });
+        }
+    }
+}
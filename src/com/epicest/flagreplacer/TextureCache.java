@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.flagreplacer;
+
+import com.epicest.dds.CompressionQuality;
+import com.epicest.dds.DDSHeader;
+import com.epicest.dds.DXTFormat;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Folder of finished DDS textures that survives restarts, so exporting the
+ * same flag with the same options again copies the texture instead of
+ * compositing and compressing it.
+ * <br><br>
+ * Textures are stored under a SHA-256 of the input image file and of every
+ * option the texture depends on. Each file is written to a temporary file,
+ * flushed to the disk and then moved into place. A crash therefore never
+ * leaves a partial texture under a key. The modification time of a texture
+ * is moved forward whenever it is used, and once the folder grows past its
+ * byte budget the least recently used textures are deleted.
+ * <br><br>
+ * Safe to use from several threads, and from several processes sharing the
+ * folder.
+ *
+ * @author Jair
+ */
+public class TextureCache {
+
+    /**
+     * Default byte budget, enough for about 180 1024x1024 DXT5 textures
+     */
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+    /**
+     * Part of every key. Bump it whenever the renderer, its masks or the
+     * encoder start writing different textures for the same options.
+     */
+    private static final String VERSION = "1";
+    private static final String EXTENSION = ".dds";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    /**
+     * Age after which temporary files are taken for leftovers of a crash
+     */
+    private static final long STALE_TEMPORARY_MILLIS = 60 * 60 * 1000;
+
+    private final Path directory;
+    private final long maxSize;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param directory folder the textures are kept in, created when needed
+     * @param maxSize byte budget of the folder
+     */
+    public TextureCache(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return cache in the default folder with the default budget
+     */
+    public static TextureCache getDefault() {
+        return new TextureCache(getDefaultDirectory(), DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @return the ".76FlagReplacer/texture-cache" folder in the user's home
+     */
+    public static Path getDefaultDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".76FlagReplacer", "texture-cache");
+    }
+
+    /**
+     * SHA-256 of a file's bytes.
+     *
+     * @param file input image file
+     * @return digest of the file
+     * @throws IOException if the file could not be read
+     */
+    public static byte[] hash(File file) throws IOException {
+        MessageDigest digest = getDigest();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Key of the texture rendered from an input image with the given options.
+     *
+     * @param inputHash {@link #hash(File)} of the input image, or null for
+     * the no flag image
+     * @param settings compositing options, including the preset's type
+     * @param size width and height of the texture
+     * @param format texture format, or null for the automatic choice
+     * @param quality how hard the texture encoder searches
+     * @return hex key
+     */
+    public static String getKey(byte[] inputHash, FlagSettings settings, int size, DXTFormat format,
+            CompressionQuality quality) {
+        StringBuilder options = new StringBuilder(VERSION);
+        options.append('|').append(inputHash == null ? "none" : toHex(inputHash))
+                .append('|').append(settings.getType())
+                .append('|').append(settings.isStained())
+                .append('|').append(settings.isTorn())
+                .append('|').append(settings.isBlasted1())
+                .append('|').append(settings.isBlasted2())
+                .append('|').append(settings.isFlagpoleConnection())
+                .append('|').append(Integer.toHexString(settings.getFlagpoleConnectionColor().getRGB()))
+                .append('|').append(settings.isFlip())
+                .append('|').append(size)
+                .append('|').append(format == null ? "auto" : format.name())
+                .append('|').append(quality.name());
+        return toHex(getDigest().digest(options.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Copies a cached texture over a file.
+     *
+     * @param key key of the texture
+     * @param target file the texture is copied to
+     * @return format of the texture, or null if it is not cached
+     * @throws IOException if the target could not be written
+     */
+    public DXTFormat copyTo(String key, Path target) throws IOException {
+        Path entry = directory.resolve(key + EXTENSION);
+        DXTFormat format;
+        try {
+            format = getFormat(entry);
+            if (format == null) {
+                Logger.getLogger(TextureCache.class.getName()).log(Level.WARNING,
+                        "Deleting damaged cached texture {0}", entry);
+                Files.deleteIfExists(entry);
+                misses.incrementAndGet();
+                return null;
+            }
+            Files.copy(entry, target, StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            //never cached, or evicted while it was being copied
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return format;
+    }
+
+    /**
+     * Stores a copy of a finished texture, then evicts the least recently
+     * used textures if the folder is over its budget.
+     *
+     * @param key key of the texture
+     * @param texture DDS file to store
+     * @throws IOException if the texture could not be stored
+     */
+    public void put(String key, Path texture) throws IOException {
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, key, TEMPORARY_EXTENSION);
+        try {
+            try (FileChannel in = FileChannel.open(texture, StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                for (long position = 0; position < size;) {
+                    position += out.transferFrom(in, position, size - position);
+                }
+                out.force(true);
+            }
+            Path entry = directory.resolve(key + EXTENSION);
+            try {
+                Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        evict();
+    }
+
+    /**
+     * @return number of textures copied out of the cache so far
+     */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of textures that were not cached so far
+     */
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Deletes the least recently used textures until the folder fits its
+     * budget, along with temporary files left behind by crashes.
+     */
+    private synchronized void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        List<FileTime> times = new ArrayList<>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    FileTime time = Files.getLastModifiedTime(file);
+                    if (name.endsWith(TEMPORARY_EXTENSION)) {
+                        if (now - time.toMillis() > STALE_TEMPORARY_MILLIS) {
+                            Files.deleteIfExists(file);
+                        }
+                    } else if (name.endsWith(EXTENSION)) {
+                        entries.add(file);
+                        times.add(time);
+                        total += Files.size(file);
+                    }
+                } catch (NoSuchFileException e) {
+                    //deleted by another process in the meantime
+                }
+            }
+        }
+        if (total <= maxSize) {
+            return;
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparing(times::get));
+        for (int i : order) {
+            if (total <= maxSize) {
+                break;
+            }
+            try {
+                long size = Files.size(entries.get(i));
+                Files.delete(entries.get(i));
+                total -= size;
+            } catch (NoSuchFileException e) {
+                //deleted by another process in the meantime
+            }
+        }
+    }
+
+    /**
+     * Format of a cached texture, or null if its header is damaged or doesn't
+     * match its size.
+     */
+    private static DXTFormat getFormat(Path entry) throws IOException {
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            DDSHeader header;
+            try {
+                header = DDSHeader.read(channel);
+            } catch (NoSuchFileException e) {
+                throw e;
+            } catch (IOException e) {
+                return null;
+            }
+            DXTFormat format = header.getDXTFormat();
+            return format != null && header.hasLevelOffsets() && header.getDataEnd() == channel.size() ? format : null;
+        }
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.flagreplacer;
+
+/**
+ * Compact store of the torn and blasted alpha masks for one layer size.
+ * <br><br>
+ * Only the alpha of the masks is used, so each mask is kept as a plane of
+ * bytes, or as a bitset when every pixel is either fully opaque or fully
+ * transparent. The combinations of masks used by a render are built lazily
+ * and cached, so applying wear is a single lookup per pixel.
+ *
+ * @author Jair
+ */
+final class WearMasks {
+
+    static final int TORN = 1;
+    static final int BLASTED1 = 2;
+    static final int BLASTED2 = 4;
+
+    /**
+     * Marks pixels of a combined plane where some mask is partially
+     * transparent, those are applied mask by mask to keep the Java2D rounding.
+     */
+    static final int PARTIAL = 1;
+
+    /**
+     * Masks to apply in one render, combined into a single plane.
+     * <br><br>
+     * If every mask is binary, <code>bits</code> holds the pixels that are
+     * kept. Otherwise <code>alpha</code> is 0 where any mask is transparent,
+     * and if only one mask isn't binary, its alpha everywhere else. With more
+     * non binary masks, it is 255 where every mask is opaque and
+     * {@link #PARTIAL} elsewhere, and <code>planes</code> holds the non binary
+     * masks to apply in order.
+     */
+    static final class Combination {
+
+        final long[] bits;
+        final byte[] alpha;
+        final byte[][] planes;
+
+        Combination(long[] bits, byte[] alpha, byte[][] planes) {
+            this.bits = bits;
+            this.alpha = alpha;
+            this.planes = planes;
+        }
+    }
+
+    private final int length;
+    /**
+     * Bitsets of the binary masks, indexed by mask bit
+     */
+    private final long[][] maskBits = new long[3][];
+    /**
+     * Alpha planes of the other masks, indexed by mask bit
+     */
+    private final byte[][] maskAlpha = new byte[3][];
+    private final Combination[] combinations = new Combination[8];
+
+    /**
+     * @param torn torn mask pixels
+     * @param blasted1 blasted (variant 1) mask pixels
+     * @param blasted2 blasted (variant 2) mask pixels
+     */
+    WearMasks(int[] torn, int[] blasted1, int[] blasted2) {
+        length = torn.length;
+        int[][] masks = {torn, blasted1, blasted2};
+        for (int m = 0; m < masks.length; m++) {
+            if (isBinary(masks[m])) {
+                long[] bits = new long[(length + 63) >>> 6];
+                for (int i = 0; i < length; i++) {
+                    if (masks[m][i] >>> 24 != 0) {
+                        bits[i >>> 6] |= 1L << i;
+                    }
+                }
+                maskBits[m] = bits;
+            } else {
+                byte[] alpha = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    alpha[i] = (byte) (masks[m][i] >>> 24);
+                }
+                maskAlpha[m] = alpha;
+            }
+        }
+    }
+
+    private static boolean isBinary(int[] pixels) {
+        for (int pixel : pixels) {
+            int a = pixel >>> 24;
+            if (a != 0 && a != 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the combination of the given masks, building it on first use.
+     *
+     * @param wear bitwise or of {@link #TORN}, {@link #BLASTED1} and
+     * {@link #BLASTED2}
+     * @return combined masks, or null if no mask is applied
+     */
+    Combination get(int wear) {
+        if (wear == 0) {
+            return null;
+        }
+        synchronized (combinations) {
+            if (combinations[wear] == null) {
+                combinations[wear] = combine(wear);
+            }
+            return combinations[wear];
+        }
+    }
+
+    private Combination combine(int wear) {
+        int count = 0, binaryCount = 0;
+        for (int m = 0; m < 3; m++) {
+            if ((wear & (1 << m)) != 0) {
+                count++;
+                if (maskBits[m] != null) {
+                    binaryCount++;
+                }
+            }
+        }
+        if (binaryCount == count) {
+            long[] bits = null;
+            for (int m = 0; m < 3; m++) {
+                if ((wear & (1 << m)) == 0) {
+                    continue;
+                }
+                if (bits == null) {
+                    bits = maskBits[m].clone();
+                } else {
+                    for (int i = 0; i < bits.length; i++) {
+                        bits[i] &= maskBits[m][i];
+                    }
+                }
+            }
+            return new Combination(bits, null, null);
+        }
+
+        byte[][] planes = new byte[count - binaryCount][];
+        int p = 0;
+        for (int m = 0; m < 3; m++) {
+            if ((wear & (1 << m)) != 0 && maskAlpha[m] != null) {
+                planes[p++] = maskAlpha[m];
+            }
+        }
+        if (count == 1) {
+            return new Combination(null, planes[0], planes);
+        }
+        //binary masks are opaque wherever they don't cut a pixel away, so a
+        //single non binary mask can keep its own alpha in the combined plane
+        boolean single = planes.length == 1;
+        byte[] alpha = new byte[length];
+        for (int i = 0; i < length; i++) {
+            boolean transparent = false, opaque = true;
+            for (int m = 0; m < 3; m++) {
+                if ((wear & (1 << m)) == 0) {
+                    continue;
+                }
+                int a = maskBits[m] != null
+                        ? (int) ((maskBits[m][i >>> 6] >>> i) & 1) * 0xFF
+                        : maskAlpha[m][i] & 0xFF;
+                transparent |= a == 0;
+                opaque &= a == 0xFF;
+            }
+            alpha[i] = transparent ? 0 : single ? planes[0][i] : (byte) (opaque ? 0xFF : PARTIAL);
+        }
+        return new Combination(null, alpha, planes);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2021 Jair
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.epicest.flagreplacer;
+
+import com.epicest.flagreplacer.FlagReplacer.ReplacementType;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the one pass {@link FlagCompositor} path of
+ * {@link FlagRenderer#render} paints exactly the same pixels as the chain of
+ * Graphics2D calls in {@link FlagRenderer#renderWithGraphics2D}.
+ *
+ * @author Jair
+ */
+public class FlagRendererTest {
+
+    private static final int SIZE = FlagRenderer.TEXTURE_SIZE;
+    /**
+     * Opaque flagpole colors, translucent ones are always drawn with
+     * Graphics2D
+     */
+    private static final Color[] FLAGPOLE_COLORS = {FlagSettings.DEFAULT_FLAGPOLE_CONNECTION_COLOR,
+        new Color(200, 10, 30)};
+
+    private static FlagRenderer renderer;
+    /**
+     * Types of every preset, each preset is rendered by its type alone
+     */
+    private static Set<ReplacementType> presetTypes;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        renderer = new FlagRenderer();
+        FlagPresetListModel presets = new FlagPresetListModel();
+        presetTypes = EnumSet.noneOf(ReplacementType.class);
+        for (int i = 0; i < presets.getSize(); i++) {
+            presetTypes.add(presets.getElementAt(i).type);
+        }
+        assertTrue("no presets loaded", !presetTypes.isEmpty());
+    }
+
+    @Test
+    public void testWithoutFlagImage() {
+        assertSameAsGraphics2D(null, "no flag image");
+    }
+
+    @Test
+    public void testWithOpaqueFlagImage() {
+        //stripes with a gradient, in an odd size so it has to be scaled
+        BufferedImage flagImage = new BufferedImage(757, 401, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < flagImage.getHeight(); y++) {
+            int stripe = (y * 13 / flagImage.getHeight()) % 2 == 0 ? 0xB22234 : 0xFFFFFF;
+            for (int x = 0; x < flagImage.getWidth(); x++) {
+                int shade = x * 48 / flagImage.getWidth();
+                int r = Math.max(0, ((stripe >> 16) & 0xFF) - shade);
+                int g = Math.max(0, ((stripe >> 8) & 0xFF) - shade);
+                int b = Math.max(0, (stripe & 0xFF) - shade);
+                flagImage.setRGB(x, y, 0xFF000000 | r << 16 | g << 8 | b);
+            }
+        }
+        assertSameAsGraphics2D(flagImage, "opaque flag image");
+    }
+
+    @Test
+    public void testWithTranslucentFlagImage() {
+        Random random = new Random(76);
+        BufferedImage flagImage = new BufferedImage(333, 211, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < flagImage.getHeight(); y++) {
+            for (int x = 0; x < flagImage.getWidth(); x++) {
+                flagImage.setRGB(x, y, random.nextInt());
+            }
+        }
+        assertSameAsGraphics2D(flagImage, "translucent flag image");
+    }
+
+    /**
+     * Renders every combination of preset type, wear mask, flagpole
+     * connection, flip and flagpole color both ways and compares the pixels.
+     * The compositor renders into the same image every time, like the window
+     * does, so leftovers of earlier renders would show up too.
+     */
+    private static void assertSameAsGraphics2D(BufferedImage flagImage, String input) {
+        BufferedImage composited = new BufferedImage(SIZE, SIZE, FlagRenderer.DEFAULT_IMAGE_TYPE);
+        Arrays.fill(((DataBufferInt) composited.getRaster().getDataBuffer()).getData(), 0x7F3F1F0F);
+        int combinations = 0;
+        for (ReplacementType type : presetTypes) {
+            for (Color flagpoleColor : FLAGPOLE_COLORS) {
+                for (int options = 0; options < 64; options++) {
+                    FlagSettings settings = new FlagSettings(type, (options & 1) != 0, (options & 2) != 0,
+                            (options & 4) != 0, (options & 8) != 0, (options & 16) != 0, (options & 32) != 0,
+                            flagpoleColor);
+                    BufferedImage drawn = new BufferedImage(SIZE, SIZE, FlagRenderer.DEFAULT_IMAGE_TYPE);
+                    renderer.render(flagImage, settings, composited);
+                    renderer.renderWithGraphics2D(flagImage, settings, drawn);
+                    assertSamePixels(input + ", " + settings, drawn, composited);
+                    combinations++;
+                }
+            }
+        }
+        assertEquals(presetTypes.size() * FLAGPOLE_COLORS.length * 64, combinations);
+    }
+
+    private static void assertSamePixels(String message, BufferedImage expected, BufferedImage actual) {
+        int[] expectedPixels = ((DataBufferInt) expected.getRaster().getDataBuffer()).getData();
+        int[] actualPixels = ((DataBufferInt) actual.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < expectedPixels.length; i++) {
+            if (expectedPixels[i] != actualPixels[i]) {
+                assertEquals(message + ", pixel " + (i % SIZE) + "," + (i / SIZE),
+                        Integer.toHexString(expectedPixels[i]), Integer.toHexString(actualPixels[i]));
+            }
+        }
+    }
+}